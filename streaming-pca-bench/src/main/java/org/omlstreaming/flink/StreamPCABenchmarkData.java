@@ -0,0 +1,66 @@
+package org.omlstreaming.flink;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.dense.row.RandomMatrices_DDRM;
+import org.ejml.dense.row.factory.DecompositionFactory_DDRM;
+import org.ejml.interfaces.decomposition.QRDecomposition;
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.Random;
+
+// Seeded synthetic inputs of the benchmarks: samples x = W f + noise of a rank q process in d
+// dimensions and a random orthonormal initial model, identical from run to run for one seed.
+final class StreamPCABenchmarkData {
+
+    static final long SEED = 20190916L;
+
+    // samples cycled through by the update benchmarks, a power of two for a cheap index mask
+    static final int NUM_SAMPLES = 1024;
+
+    private StreamPCABenchmarkData() {
+    }
+
+    static double[][] samples(int d, int q, long seed) {
+        Random random = new Random(seed);
+        DMatrixRMaj W = RandomMatrices_DDRM.rectangle(d, q, -1.0, 1.0, random);
+        double[][] samples = new double[NUM_SAMPLES][d];
+        double[] f = new double[q];
+        for (double[] x : samples) {
+            for (int j = 0; j < q; j++) {
+                f[j] = 3.0 * random.nextGaussian();
+            }
+            for (int i = 0; i < d; i++) {
+                double v = 0.1 * random.nextGaussian();
+                for (int j = 0; j < q; j++) {
+                    v += W.unsafe_get(i, j) * f[j];
+                }
+                x[i] = v;
+            }
+        }
+        return samples;
+    }
+
+    static StreamPCAModels model(String modelType, int d, int q, int blockSize, long seed) {
+        SimpleMatrix[] init = initialModel(d, q, seed);
+        return model(modelType, init, blockSize);
+    }
+
+    static StreamPCAModels model(String modelType, SimpleMatrix[] init, int blockSize) {
+        return new StreamPCAModels(modelType, init[1].numCols(), 1, init[0], init[1], init[2], 5000, blockSize);
+    }
+
+    // initial eigenvalues, eigenvectors and centre of a model
+    static SimpleMatrix[] initialModel(int d, int q, long seed) {
+        Random random = new Random(seed + 1);
+        DMatrixRMaj A = RandomMatrices_DDRM.rectangle(d, q, -1.0, 1.0, random);
+        QRDecomposition<DMatrixRMaj> qr = DecompositionFactory_DDRM.qr(d, q);
+        qr.decompose(A);
+        DMatrixRMaj Q = qr.getQ(null, true);
+
+        DMatrixRMaj lambda = new DMatrixRMaj(q, 1);
+        CommonOps_DDRM.fill(lambda, 1.0);
+        DMatrixRMaj center = new DMatrixRMaj(1, d);
+        return new SimpleMatrix[]{SimpleMatrix.wrap(lambda), SimpleMatrix.wrap(Q), SimpleMatrix.wrap(center)};
+    }
+}
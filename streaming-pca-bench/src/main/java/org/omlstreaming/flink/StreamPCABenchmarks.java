@@ -0,0 +1,24 @@
+package org.omlstreaming.flink;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Reference run of all streaming PCA benchmarks with the GC profiler, so every result carries its
+// allocation rate next to its time. Optional first argument: regular expression of the benchmarks.
+// On JDK 17+ the forks get the jdk.incubator.vector module for the Vector API kernel.
+public class StreamPCABenchmarks {
+
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "org\\.omlstreaming\\.flink\\.StreamPCA.*Benchmark")
+                .addProfiler(GCProfiler.class);
+        String javaVersion = System.getProperty("java.specification.version");
+        if (!javaVersion.startsWith("1.") && Integer.parseInt(javaVersion) >= 17) {
+            options.jvmArgsAppend("--add-modules=jdk.incubator.vector");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,81 @@
+package org.omlstreaming.flink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Scalar against Vector API kernel on the operations of one update: the projection y = Q' x, the
+// residual |x - Q y|^2 and the rank-one update Q + alpha x y', for a d x q model. The "vector" kernel
+// needs the jdk17 build of streaming-pca and forks with --add-modules jdk.incubator.vector, which
+// StreamPCABenchmarks adds on JDK 17+ (java -jar target/benchmarks.jar -jvmArgsAppend
+// --add-modules=jdk.incubator.vector otherwise); without it the setup of the vector runs fails.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamPCAKernelBenchmark {
+
+    @Param({"scalar", "vector"})
+    String kernelType;
+
+    @Param({"16", "64", "256"})
+    int d;
+
+    @Param({"2", "8", "32"})
+    int q;
+
+    private StreamPCAKernel kernel;
+    private double[] Q;
+    private double[] x;
+    private double[] y;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        kernel = StreamPCAKernels.select(kernelType);
+        Q = StreamPCABenchmarkData.initialModel(d, q, StreamPCABenchmarkData.SEED)[1].getDDRM().data;
+        x = StreamPCABenchmarkData.samples(d, q, StreamPCABenchmarkData.SEED)[0];
+        y = new double[q];
+        Random random = new Random(StreamPCABenchmarkData.SEED);
+        for (int c = 0; c < q; c++) {
+            y[c] = random.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public double[] project() {
+        kernel.multTransA(Q, d, q, x, y);
+        return y;
+    }
+
+    @Benchmark
+    public double residual() {
+        return kernel.residual(Q, d, q, x, y);
+    }
+
+    // alternating signs keep Q bounded over the run
+    @Benchmark
+    public double[] rankOne() {
+        kernel.rankOne(Q, d, q, 1e-9, x, y);
+        kernel.rankOne(Q, d, q, -1e-9, x, y);
+        return Q;
+    }
+
+    @Benchmark
+    public double dot() {
+        return kernel.dot(x, x, d);
+    }
+}
@@ -0,0 +1,86 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.ejml.simple.SimpleMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Cost of the model life cycle around the updates: building the initial model of a key, taking a
+// snapshot of its state with the Flink state serializer and restoring the state from the snapshot.
+// The snapshotted model has seen NUM_SAMPLES updates, so its matrices are dense.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamPCAModelStateBenchmark {
+
+    @Param({"ccpca", "sgaexpca"})
+    String modelType;
+
+    @Param({"16", "64", "256"})
+    int d;
+
+    @Param({"2", "8", "32"})
+    int q;
+
+    @Param({"FLOAT64", "FLOAT32", "DEFLATE"})
+    StreamPCAModelsStateSerializer.MatrixEncoding qEncoding;
+
+    private SimpleMatrix[] initialModel;
+    private StreamPCAModelsState state;
+    private StreamPCAModelsStateSerializer serializer;
+    private DataOutputSerializer snapshotOut;
+    private DataInputDeserializer snapshotIn;
+    private byte[] snapshot;
+    private int snapshotLength;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        initialModel = StreamPCABenchmarkData.initialModel(d, q, StreamPCABenchmarkData.SEED);
+        StreamPCAModels kernel = StreamPCABenchmarkData.model(modelType, initialModel, 1);
+        state = kernel.getModelState();
+        for (double[] sample : StreamPCABenchmarkData.samples(d, q, StreamPCABenchmarkData.SEED)) {
+            kernel.accumulateStreamPCAModel(state, sample);
+        }
+        serializer = new StreamPCAModelsStateSerializer(qEncoding);
+        snapshotOut = new DataOutputSerializer(1 << 16);
+        serializer.serialize(state, snapshotOut);
+        snapshot = snapshotOut.getCopyOfBuffer();
+        snapshotLength = snapshotOut.length();
+        snapshotIn = new DataInputDeserializer();
+    }
+
+    @Benchmark
+    public StreamPCAModels init() {
+        return StreamPCABenchmarkData.model(modelType, initialModel, 1);
+    }
+
+    @Benchmark
+    public int snapshot() throws IOException {
+        snapshotOut.clear();
+        serializer.serialize(state, snapshotOut);
+        return snapshotOut.length();
+    }
+
+    @Benchmark
+    public StreamPCAModelsState restore() throws IOException {
+        snapshotIn.setBuffer(snapshot, 0, snapshotLength);
+        return serializer.deserialize(snapshotIn);
+    }
+}
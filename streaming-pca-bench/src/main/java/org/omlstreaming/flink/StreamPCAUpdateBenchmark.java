@@ -0,0 +1,60 @@
+package org.omlstreaming.flink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of one event update of each PCA model type, d input dimensions and q components. The model
+// state is reused between invocations as in the keyed operator and the samples are cycled, so the
+// measured time and the allocation rate (-prof gc) are those of the update kernel alone.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamPCAUpdateBenchmark {
+
+    @Param({"ccpca", "ghapca", "sgaexpca", "sgannpca", "isvd"})
+    String modelType;
+
+    @Param({"16", "64", "256"})
+    int d;
+
+    @Param({"2", "8", "32"})
+    int q;
+
+    @Param({"1"})
+    int blockSize;
+
+    private StreamPCAModels kernel;
+    private StreamPCAModelsState state;
+    private double[][] samples;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        samples = StreamPCABenchmarkData.samples(d, q, StreamPCABenchmarkData.SEED);
+        kernel = StreamPCABenchmarkData.model(modelType, d, q, blockSize, StreamPCABenchmarkData.SEED);
+        state = kernel.getModelState();
+        next = 0;
+    }
+
+    @Benchmark
+    public boolean update() {
+        double[] sample = samples[next];
+        next = (next + 1) & (StreamPCABenchmarkData.NUM_SAMPLES - 1);
+        return kernel.accumulateStreamPCAModel(state, sample);
+    }
+}
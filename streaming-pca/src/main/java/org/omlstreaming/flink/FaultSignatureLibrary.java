@@ -0,0 +1,115 @@
+package org.omlstreaming.flink;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Known fault signatures, one per-variable contribution pattern per fault label. The patterns are
+// scaled to unit length once when the library is built and kept row after row in a single array,
+// so the nearest signature of a contribution vector (largest cosine similarity) is one pass of
+// dot products over that array. Contributions below minSimilarity of every signature are UNKNOWN.
+public class FaultSignatureLibrary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String UNKNOWN = "unknown";
+
+    private final String[] labels;
+    private final double[] signatures;
+    private final int d;
+    private final double minSimilarity;
+
+    public FaultSignatureLibrary(List<String> labelsInit, List<double[]> signaturesInit, double minSimilarityInit) {
+        if (labelsInit.size() != signaturesInit.size() || labelsInit.isEmpty()) {
+            throw new IllegalArgumentException("Fault signature library needs one signature per label, got "
+                    + labelsInit.size() + " labels and " + signaturesInit.size() + " signatures");
+        }
+        labels = labelsInit.toArray(new String[0]);
+        d = signaturesInit.get(0).length;
+        signatures = new double[labels.length * d];
+        for (int s = 0; s < labels.length; s++) {
+            double[] signature = signaturesInit.get(s);
+            if (signature.length != d) {
+                throw new IllegalArgumentException("Fault signature " + labels[s] + " has " + signature.length
+                        + " variables, expected " + d);
+            }
+            double norm = 0.0;
+            for (double v : signature) {
+                norm += v * v;
+            }
+            norm = Math.sqrt(norm);
+            if (norm == 0.0) {
+                throw new IllegalArgumentException("Fault signature " + labels[s] + " is all zero");
+            }
+            for (int j = 0; j < d; j++) {
+                signatures[s * d + j] = signature[j] / norm;
+            }
+        }
+        minSimilarity = minSimilarityInit;
+    }
+
+    // library from a text file with one signature per line: label,c1,...,cd; # starts a comment
+    public static FaultSignatureLibrary load(String path, double minSimilarity) throws IOException {
+        List<String> labels = new ArrayList<>();
+        List<double[]> signatures = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parsed = line.split(",");
+            double[] signature = new double[parsed.length - 1];
+            for (int j = 1; j < parsed.length; j++) {
+                signature[j - 1] = Double.parseDouble(parsed[j].trim());
+            }
+            labels.add(parsed[0].trim());
+            signatures.add(signature);
+        }
+        return new FaultSignatureLibrary(labels, signatures, minSimilarity);
+    }
+
+    public int getNumVariables() {
+        return d;
+    }
+
+    // index of the signature closest to the contributions, -1 if none reaches minSimilarity;
+    // the cosine similarity of the match is written to similarity[0]
+    public int nearest(double[] contributions, double[] similarity) {
+        if (contributions.length != d) {
+            throw new IllegalArgumentException("Contributions of " + contributions.length
+                    + " variables do not match fault signatures of " + d);
+        }
+        double norm = 0.0;
+        for (double c : contributions) {
+            norm += c * c;
+        }
+        similarity[0] = 0.0;
+        if (norm == 0.0) {
+            return -1;
+        }
+        norm = Math.sqrt(norm);
+
+        int best = -1;
+        double bestDot = Double.NEGATIVE_INFINITY;
+        for (int s = 0, idx = 0; s < labels.length; s++) {
+            double dot = 0.0;
+            for (int j = 0; j < d; j++, idx++) {
+                dot += signatures[idx] * contributions[j];
+            }
+            if (dot > bestDot) {
+                bestDot = dot;
+                best = s;
+            }
+        }
+        similarity[0] = bestDot / norm;
+        return similarity[0] >= minSimilarity ? best : -1;
+    }
+
+    public String getLabel(int index) {
+        return index < 0 ? UNKNOWN : labels[index];
+    }
+}
@@ -1,11 +1,18 @@
 package org.omlstreaming.flink;
 
 import org.apache.flink.api.common.functions.MapFunction;
+import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
 import org.apache.flink.api.java.functions.KeySelector;
 import org.apache.flink.api.java.typeutils.RowTypeInfo;
+import org.apache.flink.contrib.streaming.state.RocksDBStateBackend;
 import org.apache.flink.core.fs.FileSystem;
+import org.apache.flink.runtime.state.filesystem.FsStateBackend;
+import org.apache.flink.runtime.state.memory.MemoryStateBackend;
 import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.datastream.SingleOutputStreamOperator;
 import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.streaming.api.functions.sink.DiscardingSink;
 import org.apache.flink.streaming.api.functions.windowing.AllWindowFunction;
 import org.apache.flink.streaming.api.windowing.time.Time;
 import org.apache.flink.streaming.api.windowing.windows.TimeWindow;
@@ -49,12 +56,84 @@ class GFETestingProperties {
             String gfeInfra = prop.getProperty("infrastructure");
             String gfePort = prop.getProperty("cport");
             String gfeIP = prop.getProperty("cip");
+            String gfeBlockSize = prop.getProperty("blocksize", "1");
+            String gfeQEncoding = prop.getProperty("qencoding", "float64");
+            String gfeWireFormat = prop.getProperty("wireformat", "binary");
+            String gfeKeyField = prop.getProperty("keyfield", "-1");
+            String gfeParallelism = prop.getProperty("parallelism", "1");
+            String gfeMaxParallelism = prop.getProperty("maxparallelism", "128");
+            String gfePartialEvery = prop.getProperty("partialevery", "0");
+            String gfeMergeEvery = prop.getProperty("mergeevery", "1");
+            String gfeScoreConfidence = prop.getProperty("scoreconfidence", "0");
+            String gfeAlarmRun = prop.getProperty("alarmrun", "1");
+            String gfeFaultSignatures = prop.getProperty("faultsignatures", "");
+            String gfeFaultSimilarity = prop.getProperty("faultsimilarity", "0.8");
+            String gfeMetricsInterval = prop.getProperty("metricsinterval", "0");
+            String gfeMetricsDir = prop.getProperty("metricsdir", "");
+            String gfeWeighting = prop.getProperty("weighting", "cumulative");
+            String gfeHalfLife = prop.getProperty("halflife", "0");
+            String gfeWinSize = prop.getProperty("winsize", "1");
+            String gfeModelFile = prop.getProperty("modelfile", "");
+            String gfeBootstrap = prop.getProperty("bootstrap", "0");
+            String gfeComponents = prop.getProperty("components", "1");
+            String gfeStoragePrecision = prop.getProperty("storageprecision", "float64");
+            String gfeRankTarget = prop.getProperty("ranktarget", "0");
+            String gfeRankMargin = prop.getProperty("rankmargin", "0.02");
+            String gfeRankMin = prop.getProperty("rankmin", "1");
+            String gfeRankMax = prop.getProperty("rankmax", "0");
+            String gfeRankPatience = prop.getProperty("rankpatience", "100");
+            String gfeOrthoTolerance = prop.getProperty("orthotolerance", "0");
+            String gfeOrthoEvery = prop.getProperty("orthoevery", "0");
+            String gfeGain = prop.getProperty("gain", "inverse-square");
+            String gfeGainConstant = prop.getProperty("gainconstant", "1");
+            String gfeGainDecay = prop.getProperty("gaindecay", "0.99");
+            String gfeGainScale = prop.getProperty("gainscale", "");
+            String gfeCheckpointInterval = prop.getProperty("checkpointinterval", "0");
+            String gfeStateBackend = prop.getProperty("statebackend", "memory");
+            String gfeCheckpointDir = prop.getProperty("checkpointdir", "");
+            String gfeOffHeap = prop.getProperty("offheap", "false");
 
             result.add(gfeFeatures);
             result.add(gfeBackend);
             result.add(gfeInfra);
             result.add(gfePort);
             result.add(gfeIP);
+            result.add(gfeBlockSize);
+            result.add(gfeQEncoding);
+            result.add(gfeWireFormat);
+            result.add(gfeKeyField);
+            result.add(gfeParallelism);
+            result.add(gfeMaxParallelism);
+            result.add(gfePartialEvery);
+            result.add(gfeMergeEvery);
+            result.add(gfeScoreConfidence);
+            result.add(gfeAlarmRun);
+            result.add(gfeFaultSignatures);
+            result.add(gfeFaultSimilarity);
+            result.add(gfeMetricsInterval);
+            result.add(gfeMetricsDir);
+            result.add(gfeWeighting);
+            result.add(gfeHalfLife);
+            result.add(gfeWinSize);
+            result.add(gfeModelFile);
+            result.add(gfeBootstrap);
+            result.add(gfeComponents);
+            result.add(gfeStoragePrecision);
+            result.add(gfeRankTarget);
+            result.add(gfeRankMargin);
+            result.add(gfeRankMin);
+            result.add(gfeRankMax);
+            result.add(gfeRankPatience);
+            result.add(gfeOrthoTolerance);
+            result.add(gfeOrthoEvery);
+            result.add(gfeGain);
+            result.add(gfeGainConstant);
+            result.add(gfeGainDecay);
+            result.add(gfeGainScale);
+            result.add(gfeCheckpointInterval);
+            result.add(gfeStateBackend);
+            result.add(gfeCheckpointDir);
+            result.add(gfeOffHeap);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -73,13 +152,98 @@ public class GlobalFeatureClientPCACluster {
         ArrayList<String> paramTest = testConf.getPropValues();
 
         final StreamExecutionEnvironment env = StreamExecutionEnvironment.getExecutionEnvironment();
-        env.setParallelism(1);
 
         String[] featuresList = paramTest.get(0).split(",");
         String backendType = paramTest.get(1);
         String infraType = paramTest.get(2);
         int commPort = Integer.valueOf(args[0]);
         String commIP = paramTest.get(4);
+        int blockSize = Integer.valueOf(paramTest.get(5));
+        StreamPCAModelsStateSerializer.MatrixEncoding qEncoding =
+                StreamPCAModelsStateSerializer.MatrixEncoding.valueOf(paramTest.get(6).toUpperCase());
+        String wireFormat = paramTest.get(7);
+        // channel holding the machine id, one PCA model per id; -1 runs a single model
+        int keyField = Integer.valueOf(paramTest.get(8));
+        int parallelism = Integer.valueOf(paramTest.get(9));
+        int maxParallelism = Integer.valueOf(paramTest.get(10));
+        // keyed models send a partial model every partialEvery updates, merged every mergeEvery partials
+        int partialEvery = Integer.valueOf(paramTest.get(11));
+        int mergeEvery = Integer.valueOf(paramTest.get(12));
+        // fault detection on the keyed models, confidence of the control limits (0 disables it)
+        double scoreConfidence = Double.valueOf(paramTest.get(13));
+        int alarmRun = Integer.valueOf(paramTest.get(14));
+        // alarms are labelled with the closest fault signature of this file (empty disables it)
+        String faultSignaturesFile = paramTest.get(15);
+        double faultSimilarity = Double.valueOf(paramTest.get(16));
+        // operator metrics (HdrHistogram latency and update time) every metricsInterval ms, 0 disables
+        // them; with a metrics directory they replace the per-event latency and throughput dumps
+        long metricsInterval = Long.valueOf(paramTest.get(17));
+        String metricsDir = paramTest.get(18);
+        // weighting of past samples: cumulative, exponential with a half-life or a sliding window, in samples
+        String weighting = paramTest.get(19);
+        double halfLife = Double.valueOf(paramTest.get(20));
+        int pcaWinSize = Integer.valueOf(paramTest.get(21));
+        // binary copy of the initial model the operators map on the task managers (empty ships the matrices)
+        String modelFile = paramTest.get(22);
+        // warm start: batch PCA of the first bootstrap samples with the given number of components seeds
+        // the models instead of the initial model files (0 reads the files)
+        int bootstrap = Integer.valueOf(paramTest.get(23));
+        int bootstrapComps = Integer.valueOf(paramTest.get(24));
+        // float64 or float32: precision the samples between the operators and the models in state and
+        // checkpoints are serialized with, the models are updated in double either way
+        String storagePrecision = paramTest.get(25);
+        // adaptive rank: fraction of the variance the components should explain (0 keeps the rank fixed),
+        // hysteresis margin above it, bounds of the rank (max 0 for d) and updates before a change
+        double rankTarget = Double.valueOf(paramTest.get(26));
+        double rankMargin = Double.valueOf(paramTest.get(27));
+        int rankMin = Integer.valueOf(paramTest.get(28));
+        int rankMax = Integer.valueOf(paramTest.get(29));
+        int rankPatience = Integer.valueOf(paramTest.get(30));
+        // ghapca, sgannpca and ccpca: re-orthonormalise the eigenvectors once ||Q'Q - I||_F passes the
+        // tolerance or every orthoEvery updates (0 disables either)
+        double orthoTolerance = Double.valueOf(paramTest.get(31));
+        int orthoEvery = Integer.valueOf(paramTest.get(32));
+        // gains of ghapca, sgaexpca and sgannpca: inverse-square, harmonic, constant, adagrad or rmsprop
+        // schedule times the constant, rmsprop decay per sample and comma separated per-component factors
+        String gainSchedule = paramTest.get(33);
+        double gainConstant = Double.valueOf(paramTest.get(34));
+        double gainDecay = Double.valueOf(paramTest.get(35));
+        double[] gainScale = paramTest.get(36).isEmpty() ? null
+                : Arrays.stream(paramTest.get(36).split(",")).mapToDouble(Double::parseDouble).toArray();
+        // checkpoints every checkpointInterval ms (0 disables them) to checkpointDir, with asynchronous
+        // snapshots: memory, fs or rocksdb, the latter with incremental checkpoints
+        long checkpointInterval = Long.valueOf(paramTest.get(37));
+        String stateBackend = paramTest.get(38);
+        String checkpointDir = paramTest.get(39);
+        // keyed models only: lambda, Q and xbar of every key in a direct buffer between its updates,
+        // for the memory and fs backends
+        boolean offHeap = Boolean.valueOf(paramTest.get(40));
+        if (offHeap && keyField < 0) {
+            throw new IllegalArgumentException("offheap needs keyed models (keyfield)");
+        }
+        if (offHeap && checkpointInterval > 0 && stateBackend.equals("rocksdb")) {
+            throw new IllegalArgumentException("offheap does not apply to rocksdb, which keeps the models off the heap");
+        }
+
+        env.setParallelism(parallelism);
+        env.setMaxParallelism(maxParallelism);
+
+        if (checkpointInterval > 0) {
+            env.enableCheckpointing(checkpointInterval);
+            switch (stateBackend) {
+                case "memory":
+                    env.setStateBackend(new MemoryStateBackend(true));
+                    break;
+                case "fs":
+                    env.setStateBackend(new FsStateBackend(checkpointDir, true));
+                    break;
+                case "rocksdb":
+                    env.setStateBackend(new RocksDBStateBackend(checkpointDir, true));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown state backend " + stateBackend);
+            }
+        }
 
         long winSize = 1000;
 
@@ -118,7 +282,7 @@ public class GlobalFeatureClientPCACluster {
         Date date = new Date();
         String valsEvalFile = null;
         String perfEvalFile = null;
-        String pcaMethod = "sgannpca"; // ccpca, ghapca, sgaexpca, sgannpca
+        String pcaMethod = "sgannpca"; // ccpca, ghapca, sgaexpca, sgannpca, isvd
 
         if (dumpFeaturesAndProfiling){
              valsEvalFile = "gfe_output_" + pcaMethod + commPort + "_" + id + "_" + dateFormat.format(date) + "/" +
@@ -152,111 +316,251 @@ public class GlobalFeatureClientPCACluster {
                 gfNamesTyped[1] + "_" +
                 gfTypeNames[1];
 
-        String initEigValsFile = args[1];
-        String initEigVectFile = args[2];
-        String initPCACenterFile = args[3];
+        String initEigValsFile = bootstrap > 0 ? null : args[1];
+        String initEigVectFile = bootstrap > 0 ? null : args[2];
+        String initPCACenterFile = bootstrap > 0 ? null : args[3];
         Long operatorWindowSize = Long.parseLong(args[4]);
 
         int initialSampleSize = 5000;
 
         try {
-            DMatrixRMaj initEigValRead = MatrixIO
-                    .loadCSV(initEigValsFile
-                            , true);
-            SimpleMatrix initEigVals = SimpleMatrix.wrap(initEigValRead);
-            DMatrixRMaj initEigVectRead = MatrixIO
-                    .loadCSV(initEigVectFile, true);
-            SimpleMatrix initEigVecs = SimpleMatrix.wrap(initEigVectRead);
-            DMatrixRMaj initPCACenterRead = MatrixIO
-                    .loadCSV(initPCACenterFile, true);
-            SimpleMatrix initPCACenter = SimpleMatrix.wrap(initPCACenterRead).transpose();
+            // with a model file the operators only get its path, the CSV files are converted once
+            StreamPCAModelFile initModel = modelFile.isEmpty() || bootstrap > 0 ? null
+                    : StreamPCAModelFile.convertCSV(initEigValsFile, initEigVectFile, initPCACenterFile, modelFile);
+            SimpleMatrix initEigVals = null;
+            SimpleMatrix initEigVecs = null;
+            SimpleMatrix initPCACenter = null;
+            if (bootstrap > 0) {
+                // placeholders until the bootstrap replaces them with the model of the first samples
+                initEigVals = new SimpleMatrix(bootstrapComps, 1);
+                initEigVecs = new SimpleMatrix(1, bootstrapComps);
+                initPCACenter = new SimpleMatrix(1, 1);
+            } else if (initModel == null) {
+                DMatrixRMaj initEigValRead = MatrixIO
+                        .loadCSV(initEigValsFile
+                                , true);
+                initEigVals = SimpleMatrix.wrap(initEigValRead);
+                DMatrixRMaj initEigVectRead = MatrixIO
+                        .loadCSV(initEigVectFile, true);
+                initEigVecs = SimpleMatrix.wrap(initEigVectRead);
+                DMatrixRMaj initPCACenterRead = MatrixIO
+                        .loadCSV(initPCACenterFile, true);
+                initPCACenter = SimpleMatrix.wrap(initPCACenterRead).transpose();
+            }
 
             testFeaturesList.add((GlobalFeature) IdentityGlobalFeature.create("Long", 0));
 
+            // options of the shared model and of the keyed models alike
+            StreamPCAModelConfig modelConfig = new StreamPCAModelConfig();
+            modelConfig.setWeighting(weighting, halfLife);
+            modelConfig.setStoragePrecision(storagePrecision);
+            if (rankTarget > 0.0) {
+                modelConfig.setAdaptiveRank(rankTarget, rankMargin, rankMin, rankMax, rankPatience);
+            }
+            modelConfig.setOrthonormalisation(orthoTolerance, orthoEvery);
+            modelConfig.setGainSchedule(gainSchedule, gainConstant, gainDecay, gainScale);
+            if (bootstrap > 0) {
+                modelConfig.setBootstrap(bootstrap, bootstrapComps);
+            }
+
+            // all PCA features read from one model, so each event updates it only once
+            SharedStreamPCAModel pcaModel = initModel != null
+                    ? new SharedStreamPCAModel(pcaMethod, pcaWinSize, initModel, initialSampleSize, blockSize)
+                    : new SharedStreamPCAModel(
+                    pcaMethod,
+                    initEigVecs.numRows(),
+                    pcaWinSize,
+                    initEigVals,
+                    initEigVecs,
+                    initPCACenter,
+                    initialSampleSize,
+                    blockSize);
+            pcaModel.setQEncoding(qEncoding);
+            pcaModel.setConfig(modelConfig);
+
             if (Arrays.asList(featuresList).contains("PCAvecs")) {
                 PCAGlobalFeatureEigVecs featPCAvecs = PCAGlobalFeatureEigVecs
-                        .create("Double",
-                                0,
-                                pcaMethod,
-                                initEigVecs.numRows(),
-                                1,
-                                initEigVals,
-                                initEigVecs,
-                                initPCACenter,
-                                initialSampleSize);
+                        .create("Double", 0, pcaModel);
                 testFeaturesList.add((GlobalFeature) featPCAvecs);
             }
 
             if (Arrays.asList(featuresList).contains("PCAvals")) {
                 PCAGlobalFeatureEigVals featPCAvals = PCAGlobalFeatureEigVals
-                        .create("Double",
-                                0,
-                                pcaMethod,
-                                initEigVecs.numRows(),
-                                1,
-                                initEigVals,
-                                initEigVecs,
-                                initPCACenter,
-                                initialSampleSize);
+                        .create("Double", 0, pcaModel);
                 testFeaturesList.add((GlobalFeature) featPCAvals);
             }
 
-            DataStream<Row> outputF = env.socketTextStream(commIP, commPort)
-                    .map(new MapFunction<String, Row>() {
-                        @Override
-                        public Row map(String arg0) throws Exception {
-                            String[] parsed = arg0.split(",");
-                            double[] inVec = new double[parsed.length - 1];
-                            Row ret = new Row(parsed.length);
-                            ret.setField(0, Long.parseLong(parsed[0]));
-                            for (int id = 1; id < parsed.length; id++) {
-                                inVec[id - 1] = Double.parseDouble(parsed[id]);
+            if (Arrays.asList(featuresList).contains("PCAmodel")) {
+                PCAGlobalFeatureModel featPCAmodel = PCAGlobalFeatureModel
+                        .create("Double", 0, pcaModel);
+                testFeaturesList.add((GlobalFeature) featPCAmodel);
+            }
+
+            DataStream<SensorSample> samples;
+            if (wireFormat.equalsIgnoreCase("csv")) {
+                samples = env.socketTextStream(commIP, commPort)
+                        .map(new MapFunction<String, SensorSample>() {
+                            @Override
+                            public SensorSample map(String arg0) throws Exception {
+                                String[] parsed = arg0.split(",");
+                                double[] inVec = new double[parsed.length - 1];
+                                for (int id = 1; id < parsed.length; id++) {
+                                    inVec[id - 1] = Double.parseDouble(parsed[id]);
+                                }
+                                return new SensorSample(Long.parseLong(parsed[0]), inVec);
+                            }
+                        })
+                        .returns(SensorSampleTypeInfo.of(storagePrecision));
+            } else {
+                // binary frames are decoded by the source, no text parsing on the way in
+                samples = env.addSource(new SensorFrameSocketSource(commIP, commPort))
+                        .returns(SensorSampleTypeInfo.of(storagePrecision));
+            }
+
+            DataStream<Row> outputF;
+            if (keyField >= 0) {
+                // the id channel becomes the key and is dropped from the values fed to the model
+                final int keyChannel = keyField;
+                KeyedStreamPCAFunction keyedPCA = initModel != null
+                        ? new KeyedStreamPCAFunction(pcaMethod, pcaWinSize, initModel, initialSampleSize, blockSize,
+                        qEncoding)
+                        : new KeyedStreamPCAFunction(
+                        pcaMethod,
+                        initEigVecs.numRows(),
+                        pcaWinSize,
+                        initEigVals,
+                        initEigVecs,
+                        initPCACenter,
+                        initialSampleSize,
+                        blockSize,
+                        qEncoding);
+                keyedPCA.setPartialModelEvery(partialEvery);
+                keyedPCA.setConfig(modelConfig);
+                keyedPCA.setOffHeap(offHeap);
+                if (metricsInterval > 0) {
+                    keyedPCA.setMetrics(metricsInterval, metricsDir.isEmpty() ? null : metricsDir);
+                }
+                if (scoreConfidence > 0.0) {
+                    keyedPCA.setScoring(scoreConfidence, alarmRun);
+                    if (!faultSignaturesFile.isEmpty()) {
+                        keyedPCA.setFaultSignatures(FaultSignatureLibrary.load(faultSignaturesFile, faultSimilarity));
+                    }
+                }
+                SingleOutputStreamOperator<Row> keyedOutput = samples
+                        .map(new MapFunction<SensorSample, SensorSample>() {
+                            @Override
+                            public SensorSample map(SensorSample arg0) throws Exception {
+                                double[] values = arg0.getValues();
+                                double[] channels = new double[values.length - 1];
+                                System.arraycopy(values, 0, channels, 0, keyChannel);
+                                System.arraycopy(values, keyChannel + 1, channels, keyChannel,
+                                        values.length - keyChannel - 1);
+                                arg0.setKey(String.valueOf((long) values[keyChannel]));
+                                arg0.setValues(channels);
+                                return arg0;
                             }
-                            for (int id = 1; id < parsed.length; id++) {
-                                ret.setField(id, (Double) inVec[id - 1]);
+                        })
+                        .returns(SensorSampleTypeInfo.of(storagePrecision))
+                        .keyBy(new KeySelector<SensorSample, String>() {
+                            @Override
+                            public String getKey(SensorSample sample) throws Exception {
+                                return sample.getKey();
                             }
-                            return ret;
-                        }
-                    })
-                    .keyBy(new KeySelector<Row, Object>() {
-                        @Override
-                        public Object getKey(Row row) throws Exception {
-                            return 0L;
-                        }
-                    })
-                    .process(new ContinuousFeatureProcessFunctionLatency(
-                            TimeUnit.HOURS.toMillis(operatorWindowSize),
-                            0,
-                            testFeaturesList,
-                            backend,
-                            inputInputType,
-                            gfInputType,
-                            backend.getAccessParametersType(),
-                            perfEvalFile,
-                            valsEvalFile,
-                            featuresList
-                    ))
-                    .setParallelism(1);
-            outputF.writeAsText(resEvalFile, FileSystem.WriteMode.NO_OVERWRITE);
-            outputF.timeWindowAll(Time.milliseconds(winSize))
-                    .apply(new AllWindowFunction<Row, Row, TimeWindow>() {
-                        @Override
-                        public void apply(TimeWindow timeWindow,
-                                          Iterable<Row> iterable,
-                                          Collector<Row> collector) throws Exception {
-                            Iterator<Row> iterFld = iterable.iterator();
-                            long count = 0;
-                            while (iterFld.hasNext()) {
-                                iterFld.next();
-                                count++;
+                        })
+                        .process(keyedPCA)
+                        .setParallelism(parallelism);
+                outputF = keyedOutput;
+
+                if (scoreConfidence > 0.0) {
+                    keyedOutput.getSideOutput(KeyedStreamPCAFunction.SCORES)
+                            .writeAsText(resEvalFile + "_scores", FileSystem.WriteMode.NO_OVERWRITE);
+                    if (!faultSignaturesFile.isEmpty()) {
+                        keyedOutput.getSideOutput(KeyedStreamPCAFunction.FAULTS)
+                                .writeAsText(resEvalFile + "_faults", FileSystem.WriteMode.NO_OVERWRITE);
+                    }
+                }
+
+                if (partialEvery > 0) {
+                    // one global model out of the per-key partial models
+                    keyedOutput.getSideOutput(KeyedStreamPCAFunction.PARTIAL_MODELS)
+                            .flatMap(new StreamPCAModelsMergeFunction(mergeEvery))
+                            .setParallelism(1)
+                            .map(new MapFunction<StreamPCAModelsState, Row>() {
+                                @Override
+                                public Row map(StreamPCAModelsState arg0) throws Exception {
+                                    Row ret = new Row(2);
+                                    ret.setField(0, arg0.getN());
+                                    ret.setField(1, Arrays.toString(arg0.getLambda().getDDRM().data));
+                                    return ret;
+                                }
+                            })
+                            .setParallelism(1)
+                            .writeAsText(resEvalFile + "_global", FileSystem.WriteMode.NO_OVERWRITE)
+                            .setParallelism(1);
+                }
+            } else {
+                // the sample travels as (ts, SensorSample) so its values are never boxed on the way
+                // to the PCA features, all features share one model in a single subtask
+                inputInputType = new RowTypeInfo(
+                        new TypeInformation<?>[]{BasicTypeInfo.LONG_TYPE_INFO, SensorSampleTypeInfo.of(storagePrecision)},
+                        new String[]{"ts", "sample"});
+                outputF = samples
+                        .map(new MapFunction<SensorSample, Row>() {
+                            @Override
+                            public Row map(SensorSample arg0) throws Exception {
+                                Row ret = new Row(2);
+                                ret.setField(0, arg0.getTimestamp());
+                                ret.setField(1, arg0);
+                                return ret;
                             }
-                            Row result = new Row(1);
-                            result.setField(0, count);
-                            collector.collect(result);
-                        }
-                    })
-                    .setParallelism(1)
-                    .writeAsText(thrEvalFile, FileSystem.WriteMode.NO_OVERWRITE);
+                        })
+                        .returns(inputInputType)
+                        .keyBy(new KeySelector<Row, Object>() {
+                            @Override
+                            public Object getKey(Row row) throws Exception {
+                                return 0L;
+                            }
+                        })
+                        .process(new ContinuousFeatureProcessFunctionLatency(
+                                TimeUnit.HOURS.toMillis(operatorWindowSize),
+                                0,
+                                testFeaturesList,
+                                backend,
+                                inputInputType,
+                                gfInputType,
+                                backend.getAccessParametersType(),
+                                perfEvalFile,
+                                valsEvalFile,
+                                featuresList
+                        ))
+                        .setParallelism(1);
+            }
+            // with metric logs latency and throughput come from the keyed operator's histograms,
+            // the per-event dump and the throughput window only run without them
+            if (keyField < 0 || metricsInterval <= 0 || metricsDir.isEmpty()) {
+                outputF.writeAsText(resEvalFile, FileSystem.WriteMode.NO_OVERWRITE);
+                outputF.timeWindowAll(Time.milliseconds(winSize))
+                        .apply(new AllWindowFunction<Row, Row, TimeWindow>() {
+                            @Override
+                            public void apply(TimeWindow timeWindow,
+                                              Iterable<Row> iterable,
+                                              Collector<Row> collector) throws Exception {
+                                Iterator<Row> iterFld = iterable.iterator();
+                                long count = 0;
+                                while (iterFld.hasNext()) {
+                                    iterFld.next();
+                                    count++;
+                                }
+                                Row result = new Row(1);
+                                result.setField(0, count);
+                                collector.collect(result);
+                            }
+                        })
+                        .setParallelism(1)
+                        .writeAsText(thrEvalFile, FileSystem.WriteMode.NO_OVERWRITE);
+            } else {
+                outputF.addSink(new DiscardingSink<Row>());
+            }
             env.execute("Streaming PCA");
 
         } catch (Exception e) {
@@ -1,111 +1,276 @@
 package org.omlstreaming.flink;
 
-import org.ejml.data.DMatrixRMaj;
-import org.ejml.ops.MatrixIO;
-import org.ejml.simple.SimpleMatrix;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Random;
-
-import static java.lang.System.exit;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
 
-public class GlobalFeatureServerPCACluster implements Runnable {
+// Load generator feeding the streaming PCA job. The data set is mapped once and shared by all
+// clients, every client gets its own SensorLoadGenerator replaying the rows on the configured
+// profile, and a single selector thread serves all of them without blocking on a slow one.
+//
+//     GlobalFeatureServerPCACluster <data set> <port> [binary|csv] [key=value ...]
+//
+//     firstrow, lastrow        replayed rows (5000, 10000)
+//     events                   events per client, 0 until the client disconnects (0)
+//     profile                  constant, burst or ramp (constant)
+//     rate                     events per second per client, start rate of a ramp (100000)
+//     rateend, rampseconds     end rate and duration of a ramp (rate, 60)
+//     burstsize                events per burst (1000)
+//     noise, seed              noise standard deviation and its seed, client i uses seed + i (0, 42)
+//     driftchannel, driftrate, driftstart                  linear drift of a channel (-1, 0, 0)
+//     faultchannel, faultmagnitude, faultstart, faultlength step fault on a channel (-1, 0, 0, 0)
+//     buffer                   output buffer bytes per client (65536)
+//     reportseconds            period of the throughput and lag report on stdout (1)
+//
+// A client may send "-r <passes>" to ask for that many passes over the rows.
+public class GlobalFeatureServerPCACluster {
 
-    private Socket socketClient = null;
+    // below this distance to the next due event the loop polls instead of sleeping in select
+    private static final long SPIN_NANOS = 2000000L;
 
-    private final int evtBurstSize = 1000; // events
-    private final int evtBurstLatency = 50; // ms
+    private final SensorDataSet dataSet;
+    private final boolean csv;
+    private final Properties conf;
 
-    private static SimpleMatrix X;
+    private final List<Client> clients = new ArrayList<>();
+    private int accepted = 0;
+    private long closedEvents = 0;
 
-    public GlobalFeatureServerPCACluster(Socket socket, String dataSet) {
-        socketClient = socket;
-        try {
-            DMatrixRMaj inputDataRead = MatrixIO
-                    .loadCSV(dataSet, true);
-            X = SimpleMatrix.wrap(inputDataRead);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    public GlobalFeatureServerPCACluster(SensorDataSet dataSetInit, String wireFormat, Properties confInit) {
+        dataSet = dataSetInit;
+        csv = wireFormat.equalsIgnoreCase("csv");
+        conf = confInit;
     }
 
     public static void main(String[] args) throws IOException {
 
         String inputDatasetFile = args[0];
         int commPort = Integer.valueOf(args[1]);
-        ServerSocket listener = new ServerSocket(commPort);
+        String wireFormat = args.length > 2 ? args[2] : "binary";
+        Properties conf = new Properties();
+        for (int i = 3; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Load generator options are key=value, got " + args[i]);
+            }
+            conf.setProperty(option[0], option[1]);
+        }
+
+        SensorDataSet dataSet = SensorDataSet.open(inputDatasetFile);
+        new GlobalFeatureServerPCACluster(dataSet, wireFormat, conf).serve(commPort);
+    }
 
-        try {
+    public void serve(int port) throws IOException {
+        long reportNanos = (long) (Double.valueOf(conf.getProperty("reportseconds", "1")) * 1e9);
+
+        try (Selector selector = Selector.open();
+             ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(port));
+            listener.configureBlocking(false);
+            listener.register(selector, SelectionKey.OP_ACCEPT);
+
+            long nextReport = System.nanoTime() + reportNanos;
+            long reportedEvents = 0;
             while (true) {
-                Socket socket = listener.accept();
-                GlobalFeatureServerPCACluster hand = new GlobalFeatureServerPCACluster(socket, inputDatasetFile);
+                long now = System.nanoTime();
+                long wake = nextReport;
+                for (Iterator<Client> it = clients.iterator(); it.hasNext(); ) {
+                    Client client = it.next();
+                    if (!client.pump(now)) {
+                        client.close();
+                        it.remove();
+                        continue;
+                    }
+                    if (!client.blocked && client.generator.hasNext()) {
+                        wake = Math.min(wake, client.generator.nextDueNanos());
+                    }
+                }
 
-                (new Thread(hand)).start();
+                long wait = wake - System.nanoTime();
+                if (wait > SPIN_NANOS) {
+                    selector.select((wait - SPIN_NANOS) / 1000000L + 1);
+                } else {
+                    selector.selectNow();
+                }
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept(listener, selector);
+                    } else if (key.isValid() && key.isReadable()) {
+                        Client client = (Client) key.attachment();
+                        if (!client.readCommands()) {
+                            client.close();
+                            clients.remove(client);
+                        }
+                    }
+                }
+
+                now = System.nanoTime();
+                if (now >= nextReport) {
+                    long events = 0, lag = 0;
+                    for (Client client : clients) {
+                        events += client.generator.getSent();
+                        lag = Math.max(lag, client.lagNanos(now));
+                    }
+                    events += closedEvents;
+                    System.out.printf("clients %d events/s %.0f max lag %.3f ms%n", clients.size(),
+                            (events - reportedEvents) * 1e9 / (reportNanos + now - nextReport), lag / 1e6);
+                    reportedEvents = events;
+                    nextReport = now + reportNanos;
+                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
+        }
+    }
+
+    private void accept(ServerSocketChannel listener, Selector selector) throws IOException {
+        SocketChannel channel = listener.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        SensorLoadGenerator generator = new SensorLoadGenerator(dataSet,
+                Integer.valueOf(conf.getProperty("firstrow", "5000")),
+                Integer.valueOf(conf.getProperty("lastrow", "10000")),
+                LoadProfile.create(conf.getProperty("profile", "constant"),
+                        Double.valueOf(conf.getProperty("rate", "100000")),
+                        Double.valueOf(conf.getProperty("rateend", conf.getProperty("rate", "100000"))),
+                        Double.valueOf(conf.getProperty("rampseconds", "60")),
+                        Integer.valueOf(conf.getProperty("burstsize", "1000"))));
+        generator.setEvents(Long.valueOf(conf.getProperty("events", "0")));
+        double noise = Double.valueOf(conf.getProperty("noise", "0"));
+        if (noise > 0.0) {
+            generator.setNoise(noise, Long.valueOf(conf.getProperty("seed", "42")) + accepted);
+        }
+        int driftChannel = Integer.valueOf(conf.getProperty("driftchannel", "-1"));
+        if (driftChannel >= 0) {
+            generator.setDrift(driftChannel, Double.valueOf(conf.getProperty("driftrate", "0")),
+                    Long.valueOf(conf.getProperty("driftstart", "0")));
+        }
+        int faultChannel = Integer.valueOf(conf.getProperty("faultchannel", "-1"));
+        if (faultChannel >= 0) {
+            generator.setFault(faultChannel, Double.valueOf(conf.getProperty("faultmagnitude", "0")),
+                    Long.valueOf(conf.getProperty("faultstart", "0")),
+                    Long.valueOf(conf.getProperty("faultlength", "0")));
+        }
+        accepted++;
+
+        Client client = new Client(channel, generator, Integer.valueOf(conf.getProperty("buffer", "65536")));
+        client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        generator.start(System.nanoTime(), System.currentTimeMillis());
+        clients.add(client);
+        System.out.println("client " + channel.getRemoteAddress() + " " + conf.getProperty("profile", "constant"));
+    }
+
+    private final class Client {
+
+        final SocketChannel channel;
+        final SensorLoadGenerator generator;
+        final ByteBuffer out;
+        final ByteBuffer in = ByteBuffer.allocate(256);
+        final double[] values;
+        final int eventBytes;
+        final StringBuilder line = new StringBuilder();
+        SelectionKey key;
+        // the socket took no more bytes, wait for it to be writable
+        boolean blocked = false;
+
+        Client(SocketChannel channelInit, SensorLoadGenerator generatorInit, int bufferBytes) {
+            channel = channelInit;
+            generator = generatorInit;
+            values = new double[generator.getNumChannels()];
+            // a csv line holds at most 20 characters of timestamp and 25 per value
+            eventBytes = csv ? 21 + 25 * values.length : SensorFrameWriter.frameBytes(values.length);
+            if (bufferBytes < eventBytes) {
+                throw new IllegalArgumentException("Load generator buffer of " + bufferBytes
+                        + " bytes cannot hold an event of " + eventBytes);
+            }
+            out = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // events due by now into the buffer and the buffer to the socket,
+        // false once all events are sent or the client is gone
+        boolean pump(long now) {
             try {
-                listener.close();
+                while (generator.hasNext() && out.remaining() >= eventBytes && generator.nextDueNanos() <= now) {
+                    long timestamp = generator.next(values);
+                    if (csv) {
+                        line.setLength(0);
+                        line.append(timestamp);
+                        for (double value : values) {
+                            line.append(',').append(value);
+                        }
+                        line.append('\n');
+                        out.put(line.toString().getBytes(StandardCharsets.US_ASCII));
+                    } else {
+                        SensorFrameWriter.putFrame(out, timestamp, values);
+                    }
+                }
+                out.flip();
+                channel.write(out);
+                out.compact();
             } catch (IOException e) {
-                e.printStackTrace();
+                return false;
+            }
+            blocked = out.remaining() < eventBytes;
+            int ops = out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
             }
+            return generator.hasNext() || out.position() > 0;
         }
-    }
 
-    @Override
-    public void run() {
-
-        int counter = 0;
-        try {
-            PrintWriter out = new PrintWriter(socketClient.getOutputStream(), true);
-            long timestamp = 1460730000050L;
-            double it = 0.12;
-            int sampleSize = 10000;
-            int initialSampleSize = 5000;
-            String message;
-            while (true) {
-                String s = "-r 2000000";
-                if (s.contains("-r")) {
-                    counter = Integer.parseInt(s.split(" ")[1]);
-                    for (int id = 0; id < counter; id++) {
-                        for (int didx = initialSampleSize; didx < sampleSize; didx++) {
-                            SimpleMatrix curData = X.extractVector(true, didx);
-                            message = timestamp + "," + String.valueOf(curData.get(0));
-                            for (int dId = 1; dId < curData.getNumElements(); dId++) {
-                                message += "," + String.valueOf(curData.get(dId));
-                            }
-                            out.println(message);
-                        }
-                        if (id % evtBurstSize == 0) {
-                            try {
-                                Thread.sleep(evtBurstLatency);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                        }
+        // "-r <passes>" lines from the client, false once the client has closed the connection
+        boolean readCommands() {
+            try {
+                if (channel.read(in) < 0) {
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            in.flip();
+            int start = in.position();
+            for (int i = in.position(); i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    byte[] command = new byte[i - start];
+                    in.get(command);
+                    in.get();
+                    String[] s = new String(command, StandardCharsets.US_ASCII).trim().split("\\s+");
+                    if (s.length == 2 && s[0].equals("-r")) {
+                        generator.setPasses(Long.parseLong(s[1]));
                     }
-                    socketClient.close();
-                    System.exit(0);
+                    start = i + 1;
                 }
-                it = it + 1;
-                if (out.checkError())
-                    exit(-1);
-                timestamp += 7200000;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            if (socketClient.isClosed())
-                exit(-2);
-        } finally {
+            in.compact();
+            if (!in.hasRemaining()) {
+                in.clear();
+            }
+            return true;
+        }
+
+        long lagNanos(long now) {
+            return generator.hasNext() ? Math.max(0L, now - generator.nextDueNanos()) : 0L;
+        }
+
+        void close() {
+            closedEvents += generator.getSent();
+            System.out.println("client done, " + generator.getSent() + " events");
             try {
-                socketClient.close();
+                channel.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -0,0 +1,100 @@
+package org.omlstreaming.flink;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.Recorder;
+import org.apache.flink.metrics.HistogramStatistics;
+
+// Flink histogram metric on top of an HdrHistogram Recorder. Recording is wait-free and allocation
+// free on the task thread, the reporters see the statistics of the last closed interval, which
+// StreamPCAMetrics swaps in from its snapshot thread along with writing the interval to its log.
+public class HdrHistogramMetric implements org.apache.flink.metrics.Histogram {
+
+    private final Recorder recorder;
+    private final long highestValue;
+
+    private volatile Histogram interval;
+    private volatile long count = 0;
+
+    public HdrHistogramMetric(long highestValueInit, int significantDigits) {
+        highestValue = highestValueInit;
+        recorder = new Recorder(highestValue, significantDigits);
+        interval = new Histogram(highestValue, significantDigits);
+    }
+
+    // values outside [0, highestValue] are clamped to it
+    @Override
+    public void update(long value) {
+        recorder.recordValue(value < 0L ? 0L : value > highestValue ? highestValue : value);
+    }
+
+    // closes the current interval, called from a single snapshot thread; a new histogram every
+    // interval, the reporters may still read the one before
+    Histogram nextInterval() {
+        Histogram closed = recorder.getIntervalHistogram();
+        interval = closed;
+        count += closed.getTotalCount();
+        return closed;
+    }
+
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public HistogramStatistics getStatistics() {
+        return new IntervalStatistics(interval.copy());
+    }
+
+    private static final class IntervalStatistics extends HistogramStatistics {
+
+        private final Histogram histogram;
+
+        IntervalStatistics(Histogram histogramInit) {
+            histogram = histogramInit;
+        }
+
+        @Override
+        public double getQuantile(double quantile) {
+            return histogram.getValueAtPercentile(quantile * 100.0);
+        }
+
+        @Override
+        public long[] getValues() {
+            long[] values = new long[size()];
+            int i = 0;
+            for (HistogramIterationValue value : histogram.recordedValues()) {
+                for (long c = 0; c < value.getCountAtValueIteratedTo() && i < values.length; c++) {
+                    values[i++] = value.getValueIteratedTo();
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public double getMean() {
+            return histogram.getMean();
+        }
+
+        @Override
+        public double getStdDev() {
+            return histogram.getStdDeviation();
+        }
+
+        @Override
+        public long getMax() {
+            return histogram.getMaxValue();
+        }
+
+        @Override
+        public long getMin() {
+            return histogram.getMinValue();
+        }
+    }
+}
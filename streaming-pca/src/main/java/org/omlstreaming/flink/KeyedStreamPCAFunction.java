@@ -0,0 +1,382 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.api.common.state.ListState;
+import org.apache.flink.api.common.state.ListStateDescriptor;
+import org.apache.flink.api.common.state.ValueState;
+import org.apache.flink.api.common.state.ValueStateDescriptor;
+import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
+import org.apache.flink.api.common.typeinfo.PrimitiveArrayTypeInfo;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
+import org.apache.flink.api.java.typeutils.RowTypeInfo;
+import org.apache.flink.api.java.typeutils.TupleTypeInfo;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.streaming.api.functions.ProcessFunction;
+import org.apache.flink.types.Row;
+import org.apache.flink.util.Collector;
+import org.apache.flink.util.OutputTag;
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+
+// One streaming PCA model per key (machine, sensor group) of a keyed SensorSample stream. The models
+// live in keyed state, so they are spread over the parallel subtasks and follow their key groups on
+// rescaling. Every new key starts from the same initial eigenvalues, eigenvectors and centre, or
+// with bootstrap from a batch PCA of its first samples. Samples that the model would only buffer (the
+// bootstrap, an incomplete block) wait in list state, the model state is only written when it changes.
+// Optionally the eigenvalues, eigenvectors and centre of the models stay in direct buffers between updates.
+// Emits (key, timestamp, eigenvalues) each time a key's model has been updated and, when enabled,
+// a copy of the key's model every partialModelEvery updates to the PARTIAL_MODELS side output.
+// With scoring enabled every sample is also scored for fault detection (T^2, SPE, their limits and
+// an alarm flag) on the SCORES side output, against the key's model before the sample updates it. Alarms
+// can further be classified against a fault signature library from the per-variable contributions
+// of the violated statistic, the labelled fault events go to the FAULTS side output.
+public class KeyedStreamPCAFunction extends ProcessFunction<SensorSample, Row> implements ResultTypeQueryable<Row> {
+
+    private static final long serialVersionUID = 1L;
+
+    // (key, model) snapshots for StreamPCAModelsMergeFunction
+    public static final OutputTag<Tuple2<String, StreamPCAModelsState>> PARTIAL_MODELS =
+            new OutputTag<>("pca-partial-models", partialModelType());
+
+    // (key, ts, T^2, SPE, T^2 limit, SPE limit, alarm) per scored sample
+    public static final OutputTag<Row> SCORES = new OutputTag<>("pca-scores", scoreType());
+
+    // (key, ts, statistic, fault label, similarity, contributions) per classified alarm
+    public static final OutputTag<Row> FAULTS = new OutputTag<>("pca-faults", faultType());
+
+    static final int scoreKeyPos = 0;
+    static final int scoreTimestampPos = 1;
+    static final int scoreT2Pos = 2;
+    static final int scoreSpePos = 3;
+    static final int scoreT2LimitPos = 4;
+    static final int scoreSpeLimitPos = 5;
+    static final int scoreAlarmPos = 6;
+    static final int scoreArity = 7;
+
+    static final int faultKeyPos = 0;
+    static final int faultTimestampPos = 1;
+    static final int faultStatisticPos = 2;
+    static final int faultLabelPos = 3;
+    static final int faultSimilarityPos = 4;
+    static final int faultContributionsPos = 5;
+    static final int faultArity = 6;
+
+    final int outKeyPos = 0;
+    final int outTimestampPos = 1;
+    final int outEigValsPos = 2;
+    final int outArity = 3;
+
+    String modelType;
+    int nC;
+    int wS;
+    // kept as DMatrixRMaj, the function is shipped to the task managers with java serialization
+    DMatrixRMaj initEigVal;
+    DMatrixRMaj initEigVecs;
+    DMatrixRMaj pcaCenter;
+    // or read on open() from a binary model file, only its path and offsets are shipped
+    StreamPCAModelFile initModel;
+    int iter;
+    int blockSize;
+    StreamPCAModelsStateSerializer.MatrixEncoding qEncoding;
+    int partialModelEvery = 0;
+    // weighting, bootstrap, precision, adaptive rank, re-orthonormalisation and gains of every key's model
+    StreamPCAModelConfig config = new StreamPCAModelConfig();
+    // lambda, Q and xbar of every key's model in a direct buffer between its updates, for heap backends
+    boolean offHeap = false;
+    // confidence of the control limits, 0 disables scoring; consecutive violations raising an alarm
+    double scoreConfidence = 0.0;
+    int alarmRun = 1;
+    // signatures the contributions of alarms are matched against, null disables the classification
+    FaultSignatureLibrary faultSignatures;
+    // period of the metric snapshots, 0 disables the metrics; directory of their logs, null for none
+    long metricsIntervalMillis = 0;
+    String metricsLogDir;
+
+    // runs the updates on the state of the current key, its own state is the per-key init template
+    private transient StreamPCAModels kernel;
+    private transient StreamPCAModelsState initState;
+    private transient double t2Limit;
+    private transient int t2LimitComps;
+
+    private transient StreamPCAMetrics metrics;
+
+    private transient ValueState<StreamPCAModelsState> modelState;
+    private transient ValueState<Long> modelUpdates;
+    // samples of a key the kernel would only buffer (bootstrap, incomplete block) and their number
+    private transient ListState<double[]> pendingSamples;
+    private transient ValueState<Integer> pendingFill;
+
+    public KeyedStreamPCAFunction(String modelTypeInit, int nCInit, int wSInit, SimpleMatrix initEigValInit,
+                                  SimpleMatrix initEigVecsInit, SimpleMatrix pcaCenterInit, int iterInit,
+                                  int blockSizeInit, StreamPCAModelsStateSerializer.MatrixEncoding qEncodingInit) {
+        modelType = modelTypeInit;
+        nC = nCInit;
+        wS = wSInit;
+        initEigVal = initEigValInit.getDDRM();
+        initEigVecs = initEigVecsInit.getDDRM();
+        pcaCenter = pcaCenterInit.getDDRM();
+        iter = iterInit;
+        blockSize = blockSizeInit;
+        qEncoding = qEncodingInit;
+    }
+
+    public KeyedStreamPCAFunction(String modelTypeInit, int wSInit, StreamPCAModelFile initModelInit, int iterInit,
+                                  int blockSizeInit, StreamPCAModelsStateSerializer.MatrixEncoding qEncodingInit) {
+        modelType = modelTypeInit;
+        nC = initModelInit.getNumVariables();
+        wS = wSInit;
+        initModel = initModelInit;
+        iter = iterInit;
+        blockSize = blockSizeInit;
+        qEncoding = qEncodingInit;
+    }
+
+    // options of every key's model, see StreamPCAModelConfig
+    public void setConfig(StreamPCAModelConfig configInit) {
+        config = configInit;
+    }
+
+    // keep the large matrices of the models off the heap: the heap state backends then only hold a
+    // direct buffer per key, a key's model is attached to the heap matrices of the kernel while it is
+    // updated or scored. RocksDB keeps the models off the heap already, serialized
+    public void setOffHeap(boolean offHeapInit) {
+        offHeap = offHeapInit;
+    }
+
+    // send a copy of every key's model to PARTIAL_MODELS each partialModelEvery updates, 0 disables it
+    public void setPartialModelEvery(int partialModelEveryInit) {
+        if (partialModelEveryInit > 0 && !StreamPCAAlgorithms.get(modelType).isMergeable()) {
+            throw new IllegalArgumentException("Partial models of PCA model type " + modelType + " cannot be merged");
+        }
+        partialModelEvery = partialModelEveryInit;
+    }
+
+    // score every sample against its key's model, limits at the given confidence (e.g. 0.99) and an
+    // alarm after alarmRun consecutive samples beyond one of them
+    public void setScoring(double scoreConfidenceInit, int alarmRunInit) {
+        if (scoreConfidenceInit <= 0.0 || scoreConfidenceInit >= 1.0 || alarmRunInit < 1) {
+            throw new IllegalArgumentException("PCA scoring needs a confidence in (0, 1) and a positive alarm run, got "
+                    + scoreConfidenceInit + " and " + alarmRunInit);
+        }
+        scoreConfidence = scoreConfidenceInit;
+        alarmRun = alarmRunInit;
+    }
+
+    // classify every alarm against the given fault signatures, needs scoring to be enabled
+    public void setFaultSignatures(FaultSignatureLibrary faultSignaturesInit) {
+        faultSignatures = faultSignaturesInit;
+    }
+
+    // latency and update time histograms, event rate and allocation gauges in the operator's metric
+    // group, snapshotted every intervalMillis and logged to one file per subtask in logDir if not null
+    public void setMetrics(long intervalMillis, String logDir) {
+        metricsIntervalMillis = intervalMillis;
+        metricsLogDir = logDir;
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        if (initModel != null) {
+            initEigVal = initModel.getEigenvalues();
+            initEigVecs = initModel.getEigenvectors();
+            pcaCenter = initModel.getCenter();
+        }
+        kernel = new StreamPCAModels(modelType, nC, wS, SimpleMatrix.wrap(initEigVal), SimpleMatrix.wrap(initEigVecs),
+                SimpleMatrix.wrap(pcaCenter), iter, blockSize);
+        config.applyTo(kernel);
+        kernel.setOffHeap(offHeap);
+        initState = kernel.getModelState();
+        if (metricsIntervalMillis > 0) {
+            metrics = new StreamPCAMetrics(getRuntimeContext().getMetricGroup(), modelType);
+            metrics.start(metricsIntervalMillis, metricsLogDir == null ? null : metricsLogDir + "/pca-" + modelType
+                    + "-" + getRuntimeContext().getIndexOfThisSubtask() + ".hlog");
+        }
+        modelState = getRuntimeContext().getState(
+                new ValueStateDescriptor<>("pcaModel", new StreamPCAModelsStateTypeInfo(qEncoding)));
+        modelUpdates = getRuntimeContext().getState(
+                new ValueStateDescriptor<>("pcaModelUpdates", BasicTypeInfo.LONG_TYPE_INFO));
+        pendingSamples = getRuntimeContext().getListState(
+                new ListStateDescriptor<>("pcaPendingSamples", PrimitiveArrayTypeInfo.DOUBLE_PRIMITIVE_ARRAY_TYPE_INFO));
+        pendingFill = getRuntimeContext().getState(
+                new ValueStateDescriptor<>("pcaPendingFill", BasicTypeInfo.INT_TYPE_INFO));
+    }
+
+    @Override
+    public void processElement(SensorSample sample, Context ctx, Collector<Row> out) throws Exception {
+
+        StreamPCAModelsState state = modelState.value();
+        boolean changed = false;
+
+        // a key is only scored once its model is seeded, scoring moves its SPE statistics and alarm run;
+        // the sample is scored before it enters the model, so its T^2, SPE and contributions all refer to
+        // the same lambda, Q and xbar
+        if (scoreConfidence > 0.0 && !(state == null ? initState : state).isBootstrapping()) {
+            if (state == null) {
+                state = initState.copy();
+            }
+            score(state, sample, ctx);
+            changed = true;
+        }
+
+        // samples the kernel would only buffer wait in list state, the model is not rewritten for them
+        int perUpdate = samplesPerUpdate(state);
+        long updateStart = metrics != null ? metrics.startUpdate() : 0L;
+        boolean updated = false;
+        if (perUpdate > 1) {
+            pendingSamples.add(sample.getValues());
+            Integer fill = pendingFill.value();
+            int buffered = fill == null ? 1 : fill + 1;
+            if (buffered < perUpdate) {
+                pendingFill.update(buffered);
+            } else {
+                if (state == null) {
+                    state = initState.copy();
+                }
+                // the last sample completes the bootstrap or block the kernel updates the model with
+                for (double[] pending : pendingSamples.get()) {
+                    updated = kernel.accumulateStreamPCAModel(state, pending);
+                }
+                pendingSamples.clear();
+                pendingFill.clear();
+                changed = true;
+            }
+        } else {
+            if (state == null) {
+                state = initState.copy();
+            }
+            updated = kernel.accumulateStreamPCAModel(state, sample.getValues());
+            changed = true;
+        }
+        if (metrics != null) {
+            metrics.endUpdate(updateStart);
+        }
+        if (updated) {
+            Row result = new Row(outArity);
+            result.setField(outKeyPos, sample.getKey());
+            result.setField(outTimestampPos, sample.getTimestamp());
+            result.setField(outEigValsPos, state.getLambda().getDDRM().data.clone());
+            out.collect(result);
+
+            if (partialModelEvery > 0) {
+                Long updates = modelUpdates.value();
+                updates = updates == null ? 1L : updates + 1;
+                modelUpdates.update(updates);
+                if (updates % partialModelEvery == 0) {
+                    ctx.output(PARTIAL_MODELS, Tuple2.of(sample.getKey(), state.copy()));
+                }
+            }
+        }
+        if (changed) {
+            // an off-heap model goes back to its direct buffer before the backend keeps it
+            state.park();
+            modelState.update(state);
+        }
+        if (metrics != null && (updated || scoreConfidence > 0.0)) {
+            metrics.emitted(sample.getTimestamp());
+        }
+    }
+
+    // samples the kernel takes for one update of the given model of a key, null for a new key: the
+    // bootstrap samples until the model is seeded, then a block unless the window takes every sample
+    private int samplesPerUpdate(StreamPCAModelsState state) {
+        if (state == null && initState.isBootstrapping()) {
+            return initState.getBootstrapSamples();
+        }
+        StreamPCAModelsState model = state == null ? initState : state;
+        return model.getWeighting().equals("window") ? 1 : model.getBlockSize();
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (metrics != null) {
+            metrics.close();
+            metrics = null;
+        }
+        super.close();
+    }
+
+    private void score(StreamPCAModelsState state, SensorSample sample, Context ctx) {
+
+        kernel.projectSample(state, sample.getValues());
+        double t2 = StreamPCAMonitor.hotellingT2(state);
+        double spe = state.getLastSpe();
+        int q = state.getLambda().getNumElements();
+        if (q != t2LimitComps) {
+            t2Limit = StreamPCAMonitor.t2Limit(q, scoreConfidence);
+            t2LimitComps = q;
+        }
+        double speLimit = StreamPCAMonitor.speLimit(state, scoreConfidence);
+
+        // only in-control samples move the SPE limit
+        boolean outOfControl = t2 > t2Limit || spe > speLimit;
+        if (outOfControl) {
+            state.setAlarmRun(state.getAlarmRun() + 1);
+        } else {
+            state.setAlarmRun(0);
+            StreamPCAMonitor.updateSpeStatistics(state, spe);
+        }
+
+        Row scores = new Row(scoreArity);
+        scores.setField(scoreKeyPos, sample.getKey());
+        scores.setField(scoreTimestampPos, sample.getTimestamp());
+        scores.setField(scoreT2Pos, t2);
+        scores.setField(scoreSpePos, spe);
+        scores.setField(scoreT2LimitPos, t2Limit);
+        scores.setField(scoreSpeLimitPos, speLimit);
+        boolean alarm = state.getAlarmRun() >= alarmRun;
+        scores.setField(scoreAlarmPos, alarm);
+        ctx.output(SCORES, scores);
+
+        if (alarm && faultSignatures != null) {
+            // the statistic furthest beyond its limit points at the faulty variables
+            boolean speFault = spe / speLimit > t2 / t2Limit;
+            classify(state, sample, speFault, ctx);
+        }
+    }
+
+    private void classify(StreamPCAModelsState state, SensorSample sample, boolean speFault, Context ctx) {
+        double[] contributions = new double[sample.getValues().length];
+        StreamPCAMonitor.contributions(state, sample.getValues(), speFault, contributions);
+        double[] similarity = new double[1];
+        int match = faultSignatures.nearest(contributions, similarity);
+
+        Row fault = new Row(faultArity);
+        fault.setField(faultKeyPos, sample.getKey());
+        fault.setField(faultTimestampPos, sample.getTimestamp());
+        fault.setField(faultStatisticPos, speFault ? "SPE" : "T2");
+        fault.setField(faultLabelPos, faultSignatures.getLabel(match));
+        fault.setField(faultSimilarityPos, similarity[0]);
+        fault.setField(faultContributionsPos, contributions);
+        ctx.output(FAULTS, fault);
+    }
+
+    static TypeInformation<Row> scoreType() {
+        return new RowTypeInfo(
+                new TypeInformation<?>[]{BasicTypeInfo.STRING_TYPE_INFO, BasicTypeInfo.LONG_TYPE_INFO,
+                        BasicTypeInfo.DOUBLE_TYPE_INFO, BasicTypeInfo.DOUBLE_TYPE_INFO,
+                        BasicTypeInfo.DOUBLE_TYPE_INFO, BasicTypeInfo.DOUBLE_TYPE_INFO,
+                        BasicTypeInfo.BOOLEAN_TYPE_INFO},
+                new String[]{"key", "ts", "t2", "spe", "t2Limit", "speLimit", "alarm"});
+    }
+
+    static TypeInformation<Row> faultType() {
+        return new RowTypeInfo(
+                new TypeInformation<?>[]{BasicTypeInfo.STRING_TYPE_INFO, BasicTypeInfo.LONG_TYPE_INFO,
+                        BasicTypeInfo.STRING_TYPE_INFO, BasicTypeInfo.STRING_TYPE_INFO,
+                        BasicTypeInfo.DOUBLE_TYPE_INFO, PrimitiveArrayTypeInfo.DOUBLE_PRIMITIVE_ARRAY_TYPE_INFO},
+                new String[]{"key", "ts", "statistic", "label", "similarity", "contributions"});
+    }
+
+    static TypeInformation<Tuple2<String, StreamPCAModelsState>> partialModelType() {
+        return new TupleTypeInfo<>(BasicTypeInfo.STRING_TYPE_INFO, new StreamPCAModelsStateTypeInfo());
+    }
+
+    @Override
+    public TypeInformation<Row> getProducedType() {
+        return new RowTypeInfo(
+                new TypeInformation<?>[]{BasicTypeInfo.STRING_TYPE_INFO, BasicTypeInfo.LONG_TYPE_INFO,
+                        PrimitiveArrayTypeInfo.DOUBLE_PRIMITIVE_ARRAY_TYPE_INFO},
+                new String[]{"key", "ts", "eigVals"});
+    }
+}
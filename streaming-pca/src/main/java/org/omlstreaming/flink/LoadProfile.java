@@ -0,0 +1,83 @@
+package org.omlstreaming.flink;
+
+// Send schedule of a load generator client: the time of the i-th event after the start, in
+// nanoseconds. Events are timed against this absolute schedule, so a late event never shifts the
+// ones after it and sleeping in between accumulates no drift.
+//     constant: rate events per second
+//     burst:    burstSize events at once, bursts spaced to keep rate events per second on average
+//     ramp:     rate linearly increased to rateEnd over rampSeconds, rateEnd afterwards
+public final class LoadProfile {
+
+    private final String type;
+    private final double rate;
+    private final double rateEnd;
+    private final double rampSeconds;
+    private final int burstSize;
+
+    private LoadProfile(String typeInit, double rateInit, double rateEndInit, double rampSecondsInit,
+                        int burstSizeInit) {
+        type = typeInit;
+        rate = rateInit;
+        rateEnd = rateEndInit;
+        rampSeconds = rampSecondsInit;
+        burstSize = burstSizeInit;
+    }
+
+    public static LoadProfile create(String type, double rate, double rateEnd, double rampSeconds, int burstSize) {
+        switch (type) {
+            case "constant":
+            case "burst":
+                if (rate <= 0.0 || burstSize < 1) {
+                    throw new IllegalArgumentException("Load profile " + type
+                            + " needs a positive rate and burst size, got " + rate + " and " + burstSize);
+                }
+                break;
+            case "ramp":
+                if (rate < 0.0 || rateEnd <= 0.0 || rampSeconds <= 0.0) {
+                    throw new IllegalArgumentException("Load profile ramp needs rates >= 0, a positive end rate and "
+                            + "ramp time, got " + rate + ", " + rateEnd + " and " + rampSeconds);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown load profile " + type);
+        }
+        return new LoadProfile(type, rate, rateEnd, rampSeconds, burstSize);
+    }
+
+    public long offsetNanos(long event) {
+        double seconds;
+        switch (type) {
+            case "burst":
+                seconds = (event / burstSize) * (double) burstSize / rate;
+                break;
+            case "ramp":
+                // events sent by time t: rate t + (rateEnd - rate) t^2 / (2 rampSeconds)
+                double a = (rateEnd - rate) / (2.0 * rampSeconds);
+                double rampEvents = 0.5 * (rate + rateEnd) * rampSeconds;
+                if (event >= rampEvents) {
+                    seconds = rampSeconds + (event - rampEvents) / rateEnd;
+                } else if (event == 0) {
+                    seconds = 0.0;
+                } else {
+                    seconds = 2.0 * event / (rate + Math.sqrt(rate * rate + 4.0 * a * event));
+                }
+                break;
+            default:
+                seconds = event / rate;
+                break;
+        }
+        return (long) (seconds * 1e9);
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case "burst":
+                return "burst of " + burstSize + " at " + rate + " events/s";
+            case "ramp":
+                return "ramp from " + rate + " to " + rateEnd + " events/s in " + rampSeconds + " s";
+            default:
+                return "constant at " + rate + " events/s";
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package org.omlstreaming.flink;
 
-import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
 import org.apache.flink.api.common.typeinfo.PrimitiveArrayTypeInfo;
 import org.apache.flink.api.common.typeinfo.TypeInformation;
 import org.apache.flink.api.java.typeutils.RowTypeInfo;
@@ -17,46 +16,65 @@ public abstract class PCAGlobalFeatureEigVals extends MultiDimWindowGlobalFeatur
     final int pcaEigValsPos = 0;
     final int stateArity = 1;
 
+    // flink state: one field holding the complete model state
+    final int pcaModelStatePos = 0;
+    final int flinkStateArity = 1;
+
     int nC;
-    int wS;
     String modelType;
     SimpleMatrix initEigVal;
     SimpleMatrix initEigVecs;
     SimpleMatrix pcaCenter;
     int iter;
+    int blockSize;
 
-    private StreamPCAModels pcaModel;
+    SharedStreamPCAModel sharedModel;
+    int subscriber;
 
-    PCAGlobalFeatureEigVals(int featureField, String modelTypeInit,
-                            int nCInit, int wSInit, SimpleMatrix initEigValInit,
-                            SimpleMatrix initEigVecsInit, SimpleMatrix pcaCenterInit, int iterInit) {
+    PCAGlobalFeatureEigVals(int featureField, SharedStreamPCAModel sharedModelInit, int subscriberInit) {
         super(featureField);
-        nC = nCInit;
-        wS = wSInit;
-        initEigVal = initEigValInit;
-        initEigVecs = initEigVecsInit;
-        pcaCenter = pcaCenterInit;
-        iter = iterInit;
-        modelType = modelTypeInit;
-        pcaModel = new StreamPCAModels(modelType, nC, wS, initEigVal, initEigVecs, pcaCenter, iter);
+        sharedModel = sharedModelInit;
+        subscriber = subscriberInit;
+        nC = sharedModel.nC;
+        initEigVal = sharedModel.initEigVal;
+        initEigVecs = sharedModel.initEigVecs;
+        pcaCenter = sharedModel.pcaCenter;
+        iter = sharedModel.iter;
+        modelType = sharedModel.modelType;
+        blockSize = sharedModel.blockSize;
     }
 
     @Override
     public CustomStateGlobalFeature newInstance() {
-        return PCAGlobalFeatureEigVals.create(typeClass, featureField, modelType, nC, wS, initEigVal, initEigVecs, pcaCenter, iter);
+        // a new instance replaces this one, it keeps the subscription instead of adding a reader
+        return PCAGlobalFeatureEigVals.create(typeClass, featureField, sharedModel, subscriber);
     }
 
     public StreamPCAModels getPcaModel() {
-        return pcaModel;
+        return sharedModel.getPcaModel();
     }
 
-    public void setPcaModel(StreamPCAModels m) {
-        pcaModel = m;
+    public static PCAGlobalFeatureEigVals create(String type, int featureField, String modelType,
+                                                 int nC, int wS, SimpleMatrix initEigVal,
+                                                 SimpleMatrix initEigVecs, SimpleMatrix pcaCenter, int iter) {
+        return create(type, featureField, modelType, nC, wS, initEigVal, initEigVecs, pcaCenter, iter, 1);
     }
 
+    // blockSize samples are collected before each (block) update of the model
     public static PCAGlobalFeatureEigVals create(String type, int featureField, String modelType,
                                                  int nC, int wS, SimpleMatrix initEigVal,
-                                                 SimpleMatrix initEigVecs, SimpleMatrix pcaCenter, int iter) {
+                                                 SimpleMatrix initEigVecs, SimpleMatrix pcaCenter, int iter, int blockSize) {
+        return create(type, featureField,
+                new SharedStreamPCAModel(modelType, nC, wS, initEigVal, initEigVecs, pcaCenter, iter, blockSize));
+    }
+
+    // read the eigenvalues from a model shared with other PCA features, the model is updated once per event
+    public static PCAGlobalFeatureEigVals create(String type, int featureField, SharedStreamPCAModel sharedModel) {
+        return create(type, featureField, sharedModel, sharedModel.subscribe());
+    }
+
+    private static PCAGlobalFeatureEigVals create(String type, int featureField, SharedStreamPCAModel sharedModel,
+                                                  int subscriber) {
         PCAGlobalFeatureEigVals result;
         switch (type.toLowerCase()) {
             case "byte":
@@ -69,7 +87,7 @@ public abstract class PCAGlobalFeatureEigVals extends MultiDimWindowGlobalFeatur
             case "double":
             case "bigdecimal":
             case "decimal":
-                        result = new DoublePCAGlobalFeatureEigVals(featureField, modelType, nC, wS, initEigVal, initEigVecs, pcaCenter, iter);
+                        result = new DoublePCAGlobalFeatureEigVals(featureField, sharedModel, subscriber);
                 break;
             default:
                 result = null;
@@ -106,29 +124,30 @@ public abstract class PCAGlobalFeatureEigVals extends MultiDimWindowGlobalFeatur
 
         private static final long serialVersionUID = 1L;
 
-        DoublePCAGlobalFeatureEigVals(int featureField, String modelType, int nC, int wS, SimpleMatrix initEigVal, SimpleMatrix initEigVecs, SimpleMatrix pcaCenter, int iter) {
-            super(featureField, modelType, nC, wS, initEigVal, initEigVecs, pcaCenter, iter);
-            setPcaModel(new StreamPCAModels(modelType, nC, wS, initEigVal, initEigVecs, pcaCenter, iter));
+        DoublePCAGlobalFeatureEigVals(int featureField, SharedStreamPCAModel sharedModel, int subscriber) {
+            super(featureField, sharedModel, subscriber);
             this.typeClass = "double";
         }
 
         @Override
         public Object accumulate(Object globalFeature, Row arg0) {
-            Number[][] arg0Num = new Number[wS][arg0.getArity() - 1];
-            for (int wId = 0; wId < wS; wId++) {
-                for (int id = 1; id < arg0.getArity(); id++) {
-                    arg0Num[wId][id - 1] = (Number) arg0.getField(id);
-                }
+            if (arg0.getArity() == 2 && arg0.getField(1) instanceof SensorSample) {
+                return this.accumulate(globalFeature, (SensorSample) arg0.getField(1));
+            }
+            // one event is one sample, the window of the model (wS) counts events
+            Number[][] arg0Num = new Number[1][arg0.getArity() - 1];
+            for (int id = 1; id < arg0.getArity(); id++) {
+                arg0Num[0][id - 1] = (Number) arg0.getField(id);
             }
             return this.accumulate(globalFeature, arg0Num);
         }
 
         @Override
         public Object accumulate(Object globalFeature, Number[][] elements) {
-            double[][] values = new double[wS][elements[0].length];
-            for (int wId = 0; wId < wS; wId++) {
+            double[][] values = new double[elements.length][elements[0].length];
+            for (int eId = 0; eId < elements.length; eId++) {
                 for (int sId = 0; sId < elements[0].length; sId++) {
-                    values[wId][sId] = (double) elements[wId][sId];
+                    values[eId][sId] = (double) elements[eId][sId];
                 }
             }
             return this.accumulate(globalFeature, values);
@@ -137,16 +156,29 @@ public abstract class PCAGlobalFeatureEigVals extends MultiDimWindowGlobalFeatur
         public Object accumulate(Object globalFeature, double[][] values) {
 
             Row state = (Row) globalFeature;
-            SimpleMatrix lambda = (SimpleMatrix) state.getField(pcaEigValsPos);
 
-            this.getPcaModel().getModelState().setLambda(lambda);
+            // samples are buffered by the model and applied once a block is complete
+            for (double[] value : values) {
+                sharedModel.accumulate(subscriber, value);
+            }
+
+            // the model may have replaced its matrices (bootstrap, rank change), keep the current ones
+            state.setField(pcaEigValsPos, this.getPcaModel().getModelState().getLambda());
+
+            return state;
 
-            SimpleMatrix dataIn = new SimpleMatrix(values);
-            this.getPcaModel().setModelState(this.getPcaModel().iterateStreamPCAModel(this.getPcaModel().getModelState(), dataIn));
+        }
 
-            lambda = this.getPcaModel().getModelState().getLambda();
+        public Object accumulate(Object globalFeature, SensorSample sample) {
 
-            state.setField(pcaEigValsPos, lambda);
+            Row state = (Row) globalFeature;
+
+            // the sample values are copied straight into the model's block buffer, once per event as on
+            // the Row path
+            sharedModel.accumulate(subscriber, sample.getValues());
+
+            // the model may have replaced its matrices (bootstrap, rank change), keep the current ones
+            state.setField(pcaEigValsPos, this.getPcaModel().getModelState().getLambda());
 
             return state;
 
@@ -155,7 +187,8 @@ public abstract class PCAGlobalFeatureEigVals extends MultiDimWindowGlobalFeatur
         @Override
         public Object getFeature(Object globalFeature) {
 
-            SimpleMatrix lambda = (SimpleMatrix) ((Row) globalFeature).getField(pcaEigValsPos);
+            // read-only view of the shared model, always its current matrix
+            SimpleMatrix lambda = getPcaModel().getModelState().getLambda();
             double[][] eigVals = new double[lambda.numRows()][lambda.numCols()];
             for (int id = 0; id < lambda.numRows(); id++){
                 for (int jd = 0; jd < lambda.numCols(); jd++){
@@ -168,17 +201,9 @@ public abstract class PCAGlobalFeatureEigVals extends MultiDimWindowGlobalFeatur
         @Override
         public Row createCustomStateObject(Object state) {
 
-            Row rState = (Row) state;
-            Row flinkState = new Row(stateArity);
-
-            // Lambda to flink state
-            SimpleMatrix lambda = (SimpleMatrix) rState.getField(pcaEigValsPos);
-            double[] lambdaData = lambda.getDDRM().data;
-            int lambdaR = lambda.numRows();
-            int lambdaC = lambda.numCols();
-            flinkState.setField(pcaEigValsPos, lambdaData);
-            flinkState.setField(pcaEigValsPos + 1, lambdaR);
-            flinkState.setField(pcaEigValsPos + 2, lambdaC);
+            // the complete shared model goes to flink state, not only the eigenvalues
+            Row flinkState = new Row(flinkStateArity);
+            flinkState.setField(pcaModelStatePos, sharedModel.snapshot());
 
             return flinkState;
         }
@@ -189,13 +214,8 @@ public abstract class PCAGlobalFeatureEigVals extends MultiDimWindowGlobalFeatur
 
             Row state = new Row(stateArity);
 
-            // lambda revert
-            double[] lambdaData = (double[]) initState.getField(pcaEigValsPos);
-            int lambdaR = (int) initState.getField(pcaEigValsPos + 1);
-            int lambdaC = (int) initState.getField(pcaEigValsPos + 2);
-            SimpleMatrix lambda = new SimpleMatrix(lambdaR, lambdaC, true, lambdaData);
-
-            state.setField(pcaEigValsPos, lambda);
+            sharedModel.restore(subscriber, (StreamPCAModelsState) initState.getField(pcaModelStatePos));
+            state.setField(pcaEigValsPos, getPcaModel().getModelState().getLambda());
 
             return state;
         }
@@ -205,7 +225,7 @@ public abstract class PCAGlobalFeatureEigVals extends MultiDimWindowGlobalFeatur
         public Object init() {
 
             Row state = new Row(stateArity);
-            setPcaModel((new StreamPCAModels(modelType, nC, wS, initEigVal, initEigVecs, pcaCenter, iter)));
+            sharedModel.init();
             state.setField(pcaEigValsPos, getPcaModel().getModelState().getLambda());
 
             return state;
@@ -214,13 +234,11 @@ public abstract class PCAGlobalFeatureEigVals extends MultiDimWindowGlobalFeatur
         @Override
         public TypeInformation<?> getFeatureType() {
 
-            String[] fieldNames = { "lambda", "lambdaR", "lambdaC"};
+            String[] fieldNames = { "model" };
 
-            TypeInformation<?>[] types = new TypeInformation<?>[fieldNames.length];
+            TypeInformation<?>[] types = new TypeInformation<?>[flinkStateArity];
 
-            types[pcaEigValsPos] = PrimitiveArrayTypeInfo.DOUBLE_PRIMITIVE_ARRAY_TYPE_INFO;
-            types[pcaEigValsPos + 1] = BasicTypeInfo.INT_TYPE_INFO;
-            types[pcaEigValsPos + 2] = BasicTypeInfo.INT_TYPE_INFO;
+            types[pcaModelStatePos] = sharedModel.getStateType();
 
             RowTypeInfo rowType = new RowTypeInfo(types, fieldNames);
 
@@ -0,0 +1,261 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.api.common.typeinfo.PrimitiveArrayTypeInfo;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.typeutils.ObjectArrayTypeInfo;
+import org.apache.flink.api.java.typeutils.RowTypeInfo;
+import org.apache.flink.types.Row;
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.List;
+
+
+// Streaming PCA model as a single global feature: mean, eigenvalues and eigenvectors together.
+public abstract class PCAGlobalFeatureModel extends MultiDimWindowGlobalFeature {
+
+    protected String typeClass = "";
+
+    final int pcaMeanPos = 0;
+    final int pcaEigValsPos = 1;
+    final int pcaEigVecsPos = 2;
+    final int stateArity = 3;
+
+    // flink state: one field holding the complete model state
+    final int pcaModelStatePos = 0;
+    final int flinkStateArity = 1;
+
+
+    SharedStreamPCAModel sharedModel;
+    int subscriber;
+
+    PCAGlobalFeatureModel(int featureField, SharedStreamPCAModel sharedModelInit, int subscriberInit) {
+        super(featureField);
+        sharedModel = sharedModelInit;
+        subscriber = subscriberInit;
+    }
+
+    @Override
+    public CustomStateGlobalFeature newInstance() {
+        // a new instance replaces this one, it keeps the subscription instead of adding a reader
+        return PCAGlobalFeatureModel.create(typeClass, featureField, sharedModel, subscriber);
+    }
+
+    public StreamPCAModels getPcaModel() {
+        return sharedModel.getPcaModel();
+    }
+
+    public static PCAGlobalFeatureModel create(String type, int featureField, String modelType,
+                                               int nC, int wS, SimpleMatrix initEigVal,
+                                               SimpleMatrix initEigVecs, SimpleMatrix pcaCenter, int iter, int blockSize) {
+        return create(type, featureField,
+                new SharedStreamPCAModel(modelType, nC, wS, initEigVal, initEigVecs, pcaCenter, iter, blockSize));
+    }
+
+    // expose a model shared with other PCA features, the model is updated once per event
+    public static PCAGlobalFeatureModel create(String type, int featureField, SharedStreamPCAModel sharedModel) {
+        return create(type, featureField, sharedModel, sharedModel.subscribe());
+    }
+
+    private static PCAGlobalFeatureModel create(String type, int featureField, SharedStreamPCAModel sharedModel,
+                                                int subscriber) {
+        PCAGlobalFeatureModel result;
+        switch (type.toLowerCase()) {
+            case "byte":
+            case "short":
+            case "int":
+            case "integer":
+            case "long":
+            case "bigint":
+            case "float":
+            case "double":
+            case "bigdecimal":
+            case "decimal":
+                result = new DoublePCAGlobalFeatureModel(featureField, sharedModel, subscriber);
+                break;
+            default:
+                result = null;
+                break;
+        }
+        return result;
+    }
+
+    @Override
+    public int compare(Object globalFeature, Object value) {
+        throw new UnsupportedOperationException("Streaming PCA models are not comparable");
+    }
+
+    public Object accumulate(Object globalFeature, Number element) {
+        throw new UnsupportedOperationException("Streaming PCA model accumulate on single element not supported.");
+    }
+
+    @Override
+    public Object accumulate(Object globalFeature, Row element) {
+        throw new UnsupportedOperationException("Streaming PCA model accumulate on row not supported.");
+    }
+
+    @Override
+    public Object update(Object globalFeature, Row element, List<Row> updated) {
+        throw new UnsupportedOperationException("Streaming PCA model update not supported.");
+    }
+
+    @Override
+    public Object retract(Object globalFeature, List<Row> updated) {
+        throw new UnsupportedOperationException("Streaming PCA model retract not supported.");
+    }
+
+    static double[][] toArray(SimpleMatrix m) {
+        double[][] values = new double[m.numRows()][m.numCols()];
+        for (int id = 0; id < m.numRows(); id++){
+            for (int jd = 0; jd < m.numCols(); jd++){
+                values[id][jd] = m.get(id, jd);
+            }
+        }
+        return values;
+    }
+
+    public static class DoublePCAGlobalFeatureModel extends PCAGlobalFeatureModel {
+
+        private static final long serialVersionUID = 1L;
+
+        DoublePCAGlobalFeatureModel(int featureField, SharedStreamPCAModel sharedModel, int subscriber) {
+            super(featureField, sharedModel, subscriber);
+            this.typeClass = "double";
+        }
+
+        @Override
+        public Object accumulate(Object globalFeature, Row arg0) {
+            if (arg0.getArity() == 2 && arg0.getField(1) instanceof SensorSample) {
+                return this.accumulate(globalFeature, (SensorSample) arg0.getField(1));
+            }
+            // one event is one sample, the window of the model (wS) counts events
+            Number[][] arg0Num = new Number[1][arg0.getArity() - 1];
+            for (int id = 1; id < arg0.getArity(); id++) {
+                arg0Num[0][id - 1] = (Number) arg0.getField(id);
+            }
+            return this.accumulate(globalFeature, arg0Num);
+        }
+
+        @Override
+        public Object accumulate(Object globalFeature, Number[][] elements) {
+            double[][] values = new double[elements.length][elements[0].length];
+            for (int eId = 0; eId < elements.length; eId++) {
+                for (int sId = 0; sId < elements[0].length; sId++) {
+                    values[eId][sId] = (double) elements[eId][sId];
+                }
+            }
+            return this.accumulate(globalFeature, values);
+        }
+
+        public Object accumulate(Object globalFeature, double[][] values) {
+
+            Row state = (Row) globalFeature;
+
+            // samples are buffered by the model and applied once a block is complete
+            for (double[] value : values) {
+                sharedModel.accumulate(subscriber, value);
+            }
+
+            // the model may have replaced its matrices (bootstrap, rank change), keep the current ones
+            StreamPCAModelsState modelState = this.getPcaModel().getModelState();
+            state.setField(pcaMeanPos, modelState.getXbar());
+            state.setField(pcaEigValsPos, modelState.getLambda());
+            state.setField(pcaEigVecsPos, modelState.getQ());
+
+            return state;
+        }
+
+        public Object accumulate(Object globalFeature, SensorSample sample) {
+
+            Row state = (Row) globalFeature;
+
+            // the sample values are copied straight into the model's block buffer, once per event as on
+            // the Row path
+            sharedModel.accumulate(subscriber, sample.getValues());
+
+            // the model may have replaced its matrices (bootstrap, rank change), keep the current ones
+            StreamPCAModelsState modelState = this.getPcaModel().getModelState();
+            state.setField(pcaMeanPos, modelState.getXbar());
+            state.setField(pcaEigValsPos, modelState.getLambda());
+            state.setField(pcaEigVecsPos, modelState.getQ());
+
+            return state;
+        }
+
+        @Override
+        public Object getFeature(Object globalFeature) {
+
+            // read-only view of the shared model, always its current matrices
+            StreamPCAModelsState modelState = getPcaModel().getModelState();
+            Row model = new Row(stateArity);
+            model.setField(pcaMeanPos, toArray(modelState.getXbar()));
+            model.setField(pcaEigValsPos, toArray(modelState.getLambda()));
+            model.setField(pcaEigVecsPos, toArray(modelState.getQ()));
+            return model;
+        }
+
+        @Override
+        public Row createCustomStateObject(Object state) {
+
+            // the complete shared model goes to flink state, not only the matrices
+            Row flinkState = new Row(flinkStateArity);
+            flinkState.setField(pcaModelStatePos, sharedModel.snapshot());
+
+            return flinkState;
+        }
+
+
+        @Override
+        public Object initializeCustomStateObject(Row initState) {
+
+            Row state = new Row(stateArity);
+
+            sharedModel.restore(subscriber, (StreamPCAModelsState) initState.getField(pcaModelStatePos));
+            StreamPCAModelsState modelState = getPcaModel().getModelState();
+            state.setField(pcaMeanPos, modelState.getXbar());
+            state.setField(pcaEigValsPos, modelState.getLambda());
+            state.setField(pcaEigVecsPos, modelState.getQ());
+
+            return state;
+        }
+
+
+        @Override
+        public Object init() {
+
+            Row state = new Row(stateArity);
+            sharedModel.init();
+            StreamPCAModelsState modelState = this.getPcaModel().getModelState();
+            state.setField(pcaMeanPos, modelState.getXbar());
+            state.setField(pcaEigValsPos, modelState.getLambda());
+            state.setField(pcaEigVecsPos, modelState.getQ());
+
+            return state;
+        }
+
+        @Override
+        public TypeInformation<?> getFeatureType() {
+
+            String[] fieldNames = { "model" };
+
+            TypeInformation<?>[] types = new TypeInformation<?>[flinkStateArity];
+
+            types[pcaModelStatePos] = sharedModel.getStateType();
+
+            RowTypeInfo rowType = new RowTypeInfo(types, fieldNames);
+
+            return rowType;
+        }
+
+        @Override
+        public TypeInformation<?> getFeatureResultType() {
+
+            TypeInformation<double[][]> matrixType = ObjectArrayTypeInfo.getInfoFor(
+                    double[][].class, PrimitiveArrayTypeInfo.DOUBLE_PRIMITIVE_ARRAY_TYPE_INFO);
+
+            return new RowTypeInfo(new TypeInformation<?>[]{matrixType, matrixType, matrixType},
+                    new String[]{"mean", "eigVals", "eigVecs"});
+        }
+
+
+    }
+}
@@ -0,0 +1,100 @@
+package org.omlstreaming.flink;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.ops.MatrixIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Sensor data set memory-mapped read only and shared by all the threads replaying it. The rows are
+// kept in a binary file: number of rows and columns (int) followed by the values row after row
+// (double), all little-endian. A CSV data set is converted once into <file>.bin next to it and
+// the binary file is reused as long as it is newer than the CSV.
+public final class SensorDataSet {
+
+    static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final int rows;
+    private final int cols;
+    private final ByteBuffer data;
+
+    private SensorDataSet(MappedByteBuffer mapped) {
+        data = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        rows = data.getInt(0);
+        cols = data.getInt(Integer.BYTES);
+        if ((long) rows * cols * Double.BYTES + HEADER_BYTES != data.capacity()) {
+            throw new IllegalArgumentException("Sensor data set of " + rows + " x " + cols
+                    + " values does not match its file size " + data.capacity());
+        }
+    }
+
+    public static SensorDataSet open(String path) throws IOException {
+        File file = new File(path);
+        if (!path.endsWith(".bin")) {
+            File binary = new File(path + ".bin");
+            if (!binary.exists() || binary.lastModified() < file.lastModified()) {
+                convertCSV(path, binary);
+            }
+            file = binary;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Sensor data set " + file + " is too large to be mapped at once");
+            }
+            return new SensorDataSet(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // binary copy of an EJML CSV matrix, written to a temporary file first so readers never map
+    // a half written data set
+    private static void convertCSV(String path, File binary) throws IOException {
+        DMatrixRMaj X = MatrixIO.loadCSV(path, true);
+        File tmp = new File(binary.getPath() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            buffer.putInt(X.numRows).putInt(X.numCols);
+            for (double value : X.data) {
+                if (!buffer.hasRemaining()) {
+                    writeOut(channel, buffer);
+                }
+                buffer.putDouble(value);
+            }
+            writeOut(channel, buffer);
+        }
+        if (!tmp.renameTo(binary)) {
+            throw new IOException("Cannot move the converted data set to " + binary);
+        }
+    }
+
+    private static void writeOut(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public int getNumRows() {
+        return rows;
+    }
+
+    public int getNumCols() {
+        return cols;
+    }
+
+    // copy of one row into values, absolute reads only, so concurrent readers need no locking
+    public void copyRow(int row, double[] values) {
+        int offset = HEADER_BYTES + row * cols * Double.BYTES;
+        for (int j = 0; j < cols; j++, offset += Double.BYTES) {
+            values[j] = data.getDouble(offset);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
+import org.apache.flink.streaming.api.functions.source.SourceFunction;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+// Reads the binary sensor frames written by SensorFrameWriter from a socket and emits every frame
+// as a SensorSample, decoding the little-endian doubles straight into the values array.
+public class SensorFrameSocketSource implements SourceFunction<SensorSample>,
+        ResultTypeQueryable<SensorSample> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_BUFFER_BYTES = 1 << 16;
+
+    private final String hostname;
+    private final int port;
+    private final int bufferBytes;
+
+    private volatile boolean isRunning = true;
+    private transient SocketChannel channel;
+
+    public SensorFrameSocketSource(String hostnameInit, int portInit) {
+        this(hostnameInit, portInit, DEFAULT_BUFFER_BYTES);
+    }
+
+    public SensorFrameSocketSource(String hostnameInit, int portInit, int bufferBytesInit) {
+        hostname = hostnameInit;
+        port = portInit;
+        bufferBytes = bufferBytesInit;
+    }
+
+    @Override
+    public void run(SourceContext<SensorSample> ctx) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+
+        try (SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(hostname, port))) {
+            channel = socketChannel;
+            while (isRunning) {
+                if (!fill(buffer, Integer.BYTES + Long.BYTES)) {
+                    break;
+                }
+                int d = buffer.getInt(buffer.position());
+                int frameBytes = SensorFrameWriter.frameBytes(d);
+                if (d < 0 || frameBytes > buffer.capacity()) {
+                    throw new IOException("Sensor frame of " + d + " values does not fit the read buffer");
+                }
+                if (!fill(buffer, frameBytes)) {
+                    break;
+                }
+                buffer.position(buffer.position() + Integer.BYTES);
+                long timestamp = buffer.getLong();
+                double[] values = new double[d];
+                buffer.asDoubleBuffer().get(values);
+                buffer.position(buffer.position() + d * Double.BYTES);
+
+                synchronized (ctx.getCheckpointLock()) {
+                    ctx.collect(new SensorSample(timestamp, values));
+                }
+            }
+        } finally {
+            channel = null;
+        }
+    }
+
+    // make sure the buffer holds at least the given number of unread bytes, false on end of stream
+    private boolean fill(ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    if (buffer.position() > 0) {
+                        throw new EOFException("Sensor stream ended inside a frame");
+                    }
+                    return false;
+                }
+            }
+        } finally {
+            buffer.flip();
+        }
+        return true;
+    }
+
+    @Override
+    public void cancel() {
+        isRunning = false;
+        SocketChannel socketChannel = channel;
+        if (socketChannel != null) {
+            try {
+                socketChannel.close();
+            } catch (IOException e) {
+                // closing only unblocks the reading thread
+            }
+        }
+    }
+
+    @Override
+    public TypeInformation<SensorSample> getProducedType() {
+        return SensorSampleTypeInfo.INSTANCE;
+    }
+}
@@ -0,0 +1,54 @@
+package org.omlstreaming.flink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+// Binary framed sensor records written to an NIO channel. Every frame is the number of values d
+// (int), the timestamp (long) and the d values (double), all little-endian. Frames are collected
+// in a direct buffer and written out once it is full or on flush().
+public class SensorFrameWriter {
+
+    static final int FRAME_HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    public SensorFrameWriter(WritableByteChannel channelInit, int bufferBytes) {
+        channel = channelInit;
+        buffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static int frameBytes(int d) {
+        return FRAME_HEADER_BYTES + d * Double.BYTES;
+    }
+
+    public void write(long timestamp, double[] values) throws IOException {
+        if (buffer.remaining() < frameBytes(values.length)) {
+            flush();
+            if (buffer.remaining() < frameBytes(values.length)) {
+                throw new IllegalArgumentException("Sensor frame of " + values.length
+                        + " values does not fit the write buffer");
+            }
+        }
+        putFrame(buffer, timestamp, values);
+    }
+
+    // one frame into a little-endian buffer with at least frameBytes(values.length) bytes left
+    static void putFrame(ByteBuffer buffer, long timestamp, double[] values) {
+        buffer.putInt(values.length);
+        buffer.putLong(timestamp);
+        for (double value : values) {
+            buffer.putDouble(value);
+        }
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
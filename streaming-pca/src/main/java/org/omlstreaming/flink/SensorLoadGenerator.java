@@ -0,0 +1,129 @@
+package org.omlstreaming.flink;
+
+import java.util.Random;
+
+// Events of one load generator client: the rows firstRow to lastRow of the shared data set replayed
+// in a loop on the schedule of a LoadProfile, with optional synthetic changes on top of the rows
+//     noise: gaussian noise of the given standard deviation on every channel, seeded per client
+//     drift: a channel moving away linearly by driftPerEvent per event from driftStart on
+//     fault: a step of faultMagnitude on a channel for faultLength events from faultStart on
+// Event timestamps are the scheduled send times, so latencies measured against them include the
+// time an event waited behind a slow consumer.
+public class SensorLoadGenerator {
+
+    private final SensorDataSet dataSet;
+    private final int firstRow;
+    private final int lastRow;
+    private final LoadProfile profile;
+
+    // events to send, 0 sends until the client goes away
+    private long events = 0;
+
+    private double noise = 0.0;
+    private Random noiseRandom;
+
+    private int driftChannel = -1;
+    private double driftPerEvent;
+    private long driftStart;
+
+    private int faultChannel = -1;
+    private double faultMagnitude;
+    private long faultStart;
+    private long faultLength;
+
+    private long startNanos;
+    private long startMillis;
+    private long next = 0;
+    private int row;
+
+    public SensorLoadGenerator(SensorDataSet dataSetInit, int firstRowInit, int lastRowInit, LoadProfile profileInit) {
+        if (firstRowInit < 0 || lastRowInit > dataSetInit.getNumRows() || firstRowInit >= lastRowInit) {
+            throw new IllegalArgumentException("Rows " + firstRowInit + " to " + lastRowInit
+                    + " are not inside the data set of " + dataSetInit.getNumRows() + " rows");
+        }
+        dataSet = dataSetInit;
+        firstRow = firstRowInit;
+        lastRow = lastRowInit;
+        profile = profileInit;
+        row = firstRow;
+    }
+
+    public void setEvents(long eventsInit) {
+        events = eventsInit;
+    }
+
+    // events of the given number of passes over the rows
+    public void setPasses(long passes) {
+        events = passes * (lastRow - firstRow);
+    }
+
+    public void setNoise(double noiseInit, long seed) {
+        noise = noiseInit;
+        noiseRandom = new Random(seed);
+    }
+
+    public void setDrift(int channel, double perEvent, long start) {
+        driftChannel = checkChannel(channel);
+        driftPerEvent = perEvent;
+        driftStart = start;
+    }
+
+    public void setFault(int channel, double magnitude, long start, long length) {
+        faultChannel = checkChannel(channel);
+        faultMagnitude = magnitude;
+        faultStart = start;
+        faultLength = length;
+    }
+
+    private int checkChannel(int channel) {
+        if (channel >= dataSet.getNumCols()) {
+            throw new IllegalArgumentException("Channel " + channel + " is not inside the data set of "
+                    + dataSet.getNumCols() + " channels");
+        }
+        return channel;
+    }
+
+    public int getNumChannels() {
+        return dataSet.getNumCols();
+    }
+
+    // start of the schedule, event 0 is due right away
+    public void start(long nowNanos, long nowMillis) {
+        startNanos = nowNanos;
+        startMillis = nowMillis;
+    }
+
+    public boolean hasNext() {
+        return events <= 0 || next < events;
+    }
+
+    public long nextDueNanos() {
+        return startNanos + profile.offsetNanos(next);
+    }
+
+    // values of the next event, returns its timestamp
+    public long next(double[] values) {
+        long offset = profile.offsetNanos(next);
+        dataSet.copyRow(row, values);
+        if (noise > 0.0) {
+            for (int j = 0; j < values.length; j++) {
+                values[j] += noise * noiseRandom.nextGaussian();
+            }
+        }
+        if (driftChannel >= 0 && next > driftStart) {
+            values[driftChannel] += driftPerEvent * (next - driftStart);
+        }
+        if (faultChannel >= 0 && next >= faultStart && next - faultStart < faultLength) {
+            values[faultChannel] += faultMagnitude;
+        }
+        next++;
+        if (++row == lastRow) {
+            row = firstRow;
+        }
+        return startMillis + offset / 1000000L;
+    }
+
+    public long getSent() {
+        return next;
+    }
+}
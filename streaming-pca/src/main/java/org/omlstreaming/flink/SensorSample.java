@@ -0,0 +1,79 @@
+package org.omlstreaming.flink;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+// One sensor reading: timestamp, optional key (e.g. the sensor or machine id) and the channel values.
+public class SensorSample implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long timestamp;
+    private String key;
+    private double[] values;
+
+    public SensorSample() {
+        this(0L, null, new double[0]);
+    }
+
+    public SensorSample(long timestampInit, double[] valuesInit) {
+        this(timestampInit, null, valuesInit);
+    }
+
+    public SensorSample(long timestampInit, String keyInit, double[] valuesInit) {
+        timestamp = timestampInit;
+        key = keyInit;
+        values = valuesInit;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+
+    public void setValues(double[] values) {
+        this.values = values;
+    }
+
+    public int getNumValues() {
+        return values.length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SensorSample)) {
+            return false;
+        }
+        SensorSample other = (SensorSample) obj;
+        return timestamp == other.timestamp
+                && (key == null ? other.key == null : key.equals(other.key))
+                && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(timestamp);
+        result = 31 * result + (key == null ? 0 : key.hashCode());
+        return 31 * result + Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return timestamp + (key == null ? "" : "," + key) + "," + Arrays.toString(values);
+    }
+}
@@ -0,0 +1,37 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+import java.io.IOException;
+
+// SensorSampleSerializer writing the values as floats, half the bytes per sample between the
+// operators of a float32 pipeline. The values are rounded to single precision on the way.
+public final class SensorSampleFloat32Serializer extends SensorSampleSerializer {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final SensorSampleFloat32Serializer INSTANCE = new SensorSampleFloat32Serializer();
+
+    @Override
+    void writeValue(double value, DataOutputView target) throws IOException {
+        target.writeFloat((float) value);
+    }
+
+    @Override
+    double readValue(DataInputView source) throws IOException {
+        return source.readFloat();
+    }
+
+    @Override
+    void copyValues(int d, DataInputView source, DataOutputView target) throws IOException {
+        for (int id = 0; id < d; id++) {
+            target.writeInt(source.readInt());
+        }
+    }
+
+    @Override
+    public boolean canEqual(Object obj) {
+        return obj instanceof SensorSampleFloat32Serializer;
+    }
+}
@@ -0,0 +1,117 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.api.common.typeutils.base.TypeSerializerSingleton;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+import java.io.IOException;
+
+// Serializer of SensorSample: timestamp, key flag and key, number of values and the primitive values.
+// The values are written as doubles, SensorSampleFloat32Serializer writes them as floats.
+public class SensorSampleSerializer extends TypeSerializerSingleton<SensorSample> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final SensorSampleSerializer INSTANCE = new SensorSampleSerializer();
+
+    @Override
+    public boolean isImmutableType() {
+        return false;
+    }
+
+    @Override
+    public SensorSample createInstance() {
+        return new SensorSample();
+    }
+
+    @Override
+    public SensorSample copy(SensorSample from) {
+        return new SensorSample(from.getTimestamp(), from.getKey(), from.getValues().clone());
+    }
+
+    @Override
+    public SensorSample copy(SensorSample from, SensorSample reuse) {
+        double[] values = reuse.getValues();
+        if (values == null || values.length != from.getNumValues()) {
+            values = new double[from.getNumValues()];
+        }
+        System.arraycopy(from.getValues(), 0, values, 0, values.length);
+        reuse.setTimestamp(from.getTimestamp());
+        reuse.setKey(from.getKey());
+        reuse.setValues(values);
+        return reuse;
+    }
+
+    @Override
+    public int getLength() {
+        return -1;
+    }
+
+    @Override
+    public void serialize(SensorSample record, DataOutputView target) throws IOException {
+        target.writeLong(record.getTimestamp());
+        String key = record.getKey();
+        target.writeBoolean(key != null);
+        if (key != null) {
+            target.writeUTF(key);
+        }
+        double[] values = record.getValues();
+        target.writeInt(values.length);
+        for (double value : values) {
+            writeValue(value, target);
+        }
+    }
+
+    @Override
+    public SensorSample deserialize(DataInputView source) throws IOException {
+        return deserialize(new SensorSample(), source);
+    }
+
+    @Override
+    public SensorSample deserialize(SensorSample reuse, DataInputView source) throws IOException {
+        reuse.setTimestamp(source.readLong());
+        reuse.setKey(source.readBoolean() ? source.readUTF() : null);
+        int d = source.readInt();
+        double[] values = reuse.getValues();
+        if (values == null || values.length != d) {
+            values = new double[d];
+        }
+        for (int id = 0; id < d; id++) {
+            values[id] = readValue(source);
+        }
+        reuse.setValues(values);
+        return reuse;
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+        target.writeLong(source.readLong());
+        boolean hasKey = source.readBoolean();
+        target.writeBoolean(hasKey);
+        if (hasKey) {
+            target.writeUTF(source.readUTF());
+        }
+        int d = source.readInt();
+        target.writeInt(d);
+        copyValues(d, source, target);
+    }
+
+    void writeValue(double value, DataOutputView target) throws IOException {
+        target.writeDouble(value);
+    }
+
+    double readValue(DataInputView source) throws IOException {
+        return source.readDouble();
+    }
+
+    void copyValues(int d, DataInputView source, DataOutputView target) throws IOException {
+        for (int id = 0; id < d; id++) {
+            target.writeLong(source.readLong());
+        }
+    }
+
+    @Override
+    public boolean canEqual(Object obj) {
+        return obj != null && obj.getClass() == SensorSampleSerializer.class;
+    }
+}
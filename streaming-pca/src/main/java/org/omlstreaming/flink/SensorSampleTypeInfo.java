@@ -0,0 +1,86 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+
+// Type information of SensorSample, backed by SensorSampleSerializer or, for FLOAT32, by
+// SensorSampleFloat32Serializer.
+public class SensorSampleTypeInfo extends TypeInformation<SensorSample> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final SensorSampleTypeInfo INSTANCE = new SensorSampleTypeInfo(false);
+
+    public static final SensorSampleTypeInfo FLOAT32 = new SensorSampleTypeInfo(true);
+
+    private final boolean float32;
+
+    public SensorSampleTypeInfo() {
+        this(false);
+    }
+
+    private SensorSampleTypeInfo(boolean float32) {
+        this.float32 = float32;
+    }
+
+    // FLOAT32 for "float32", INSTANCE otherwise
+    public static SensorSampleTypeInfo of(String precision) {
+        return precision.equals("float32") ? FLOAT32 : INSTANCE;
+    }
+
+    @Override
+    public boolean isBasicType() {
+        return false;
+    }
+
+    @Override
+    public boolean isTupleType() {
+        return false;
+    }
+
+    @Override
+    public int getArity() {
+        return 1;
+    }
+
+    @Override
+    public int getTotalFields() {
+        return 1;
+    }
+
+    @Override
+    public Class<SensorSample> getTypeClass() {
+        return SensorSample.class;
+    }
+
+    @Override
+    public boolean isKeyType() {
+        return false;
+    }
+
+    @Override
+    public TypeSerializer<SensorSample> createSerializer(ExecutionConfig config) {
+        return float32 ? SensorSampleFloat32Serializer.INSTANCE : SensorSampleSerializer.INSTANCE;
+    }
+
+    @Override
+    public String toString() {
+        return float32 ? "SensorSample<float32>" : "SensorSample";
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof SensorSampleTypeInfo && float32 == ((SensorSampleTypeInfo) obj).float32;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * SensorSampleTypeInfo.class.hashCode() + (float32 ? 1 : 0);
+    }
+
+    @Override
+    public boolean canEqual(Object obj) {
+        return obj instanceof SensorSampleTypeInfo;
+    }
+}
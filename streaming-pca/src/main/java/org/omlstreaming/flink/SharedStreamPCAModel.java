@@ -0,0 +1,151 @@
+package org.omlstreaming.flink;
+
+import org.ejml.simple.SimpleMatrix;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+// One streaming PCA model shared by all the PCA global features built on top of it (eigenvalues,
+// eigenvectors, full model). Every feature subscribes once and hands over each event it sees; the
+// first subscriber to deliver an event updates the model, the others only read the updated state.
+public class SharedStreamPCAModel implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    String modelType;
+    int nC;
+    int wS;
+    SimpleMatrix initEigVal;
+    SimpleMatrix initEigVecs;
+    SimpleMatrix pcaCenter;
+    int iter;
+    int blockSize;
+
+    // weighting, bootstrap, precision, adaptive rank, re-orthonormalisation and gains of the model
+    StreamPCAModelConfig config = new StreamPCAModelConfig();
+
+    // encoding of the eigenvectors in checkpoints
+    StreamPCAModelsStateSerializer.MatrixEncoding qEncoding = StreamPCAModelsStateSerializer.MatrixEncoding.FLOAT64;
+
+    private transient StreamPCAModels pcaModel;
+
+    // initial model read by each task on first use, instead of the init matrices above
+    StreamPCAModelFile initModel;
+
+    // events delivered by each subscriber and events applied to the model
+    private long[] delivered = new long[0];
+    private long applied;
+
+    public SharedStreamPCAModel(String modelTypeInit, int nCInit, int wSInit, SimpleMatrix initEigValInit,
+                                SimpleMatrix initEigVecsInit, SimpleMatrix pcaCenterInit, int iterInit, int blockSizeInit) {
+        modelType = modelTypeInit;
+        nC = nCInit;
+        wS = wSInit;
+        initEigVal = initEigValInit;
+        initEigVecs = initEigVecsInit;
+        pcaCenter = pcaCenterInit;
+        iter = iterInit;
+        blockSize = blockSizeInit;
+    }
+
+    // model initialised from a binary model file, only its path and offsets are shipped with the job
+    public SharedStreamPCAModel(String modelTypeInit, int wSInit, StreamPCAModelFile initModelInit, int iterInit,
+                                int blockSizeInit) {
+        this(modelTypeInit, initModelInit.getNumVariables(), wSInit, null, null, null, iterInit, blockSizeInit);
+        initModel = initModelInit;
+    }
+
+    public StreamPCAModels getPcaModel() {
+        if (pcaModel == null) {
+            init();
+        }
+        return pcaModel;
+    }
+
+    // options of the model, see StreamPCAModelConfig
+    public void setConfig(StreamPCAModelConfig configInit) {
+        config = configInit;
+    }
+
+    public void setQEncoding(StreamPCAModelsStateSerializer.MatrixEncoding qEncodingInit) {
+        qEncoding = qEncodingInit;
+    }
+
+    // type of the checkpointed model state
+    public StreamPCAModelsStateTypeInfo getStateType() {
+        return new StreamPCAModelsStateTypeInfo(qEncoding);
+    }
+
+    // register a new reader of the model, returns its subscriber id
+    synchronized int subscribe() {
+        delivered = Arrays.copyOf(delivered, delivered.length + 1);
+        delivered[delivered.length - 1] = applied;
+        return delivered.length - 1;
+    }
+
+    // (re)build the model from the initial parameters, every subscriber calls this on init so the
+    // model is only rebuilt once it has seen data
+    void init() {
+        if (pcaModel != null && applied == 0L) {
+            return;
+        }
+        pcaModel = buildModel();
+        Arrays.fill(delivered, 0L);
+        applied = 0L;
+    }
+
+    // model of the initial parameters and options
+    private StreamPCAModels buildModel() {
+        loadInitialModel();
+        StreamPCAModels model = new StreamPCAModels(modelType, nC, wS, initEigVal, initEigVecs, pcaCenter, iter,
+                blockSize);
+        config.applyTo(model);
+        return model;
+    }
+
+    // init matrices of a model file, read once per task
+    private void loadInitialModel() {
+        if (initModel == null || initEigVecs != null) {
+            return;
+        }
+        try {
+            initEigVal = SimpleMatrix.wrap(initModel.getEigenvalues());
+            initEigVecs = SimpleMatrix.wrap(initModel.getEigenvectors());
+            pcaCenter = SimpleMatrix.wrap(initModel.getCenter());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the initial PCA model " + initModel.getPath(), e);
+        }
+    }
+
+    // deliver the next sample seen by the given subscriber, the model is only updated for samples no
+    // other subscriber has delivered yet
+    void accumulate(int subscriber, double[] sample) {
+        delivered[subscriber]++;
+        if (delivered[subscriber] > applied) {
+            applied++;
+            StreamPCAModels model = getPcaModel();
+            model.accumulateStreamPCAModel(model.getModelState(), sample);
+        }
+    }
+
+    // consistent copy of the complete model for checkpointing
+    StreamPCAModelsState snapshot() {
+        return getPcaModel().getModelState().copy();
+    }
+
+    // bring back a checkpointed model, every subscriber restores the same state so it is only taken
+    // from subscribers that are not behind the model, the others have already seen it restored
+    void restore(int subscriber, StreamPCAModelsState restored) {
+        if (pcaModel != null && delivered[subscriber] < applied) {
+            return;
+        }
+        if (pcaModel == null) {
+            pcaModel = buildModel();
+        }
+        pcaModel.setModelState(restored.copy());
+        Arrays.fill(delivered, 0L);
+        applied = 0L;
+    }
+}
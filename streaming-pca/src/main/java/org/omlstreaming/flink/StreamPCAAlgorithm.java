@@ -0,0 +1,52 @@
+package org.omlstreaming.flink;
+
+import org.ejml.data.DMatrixRMaj;
+
+import java.io.Serializable;
+
+// Update rule of a streaming PCA model type. StreamPCAModels resolves the algorithm of its model type
+// once from StreamPCAAlgorithms and calls it for every sample or block, the built-in algorithms and
+// the ones found through java.util.ServiceLoader (listed in META-INF/services/org.omlstreaming.flink.
+// StreamPCAAlgorithm) are registered the same way. An algorithm is shared by all models of its type
+// and keeps no state of its own: lambda, Q, xbar and n of the model, the weighting and the work
+// buffers all live in the StreamPCAModelsState it is given and are reached through its public accessors.
+public interface StreamPCAAlgorithm extends Serializable {
+
+    // model type the algorithm is registered under, e.g. "ccpca"
+    String getName();
+
+    // update the model in place with one 1 x d sample, which may be a work buffer of the state
+    void update(StreamPCAModelsState state, DMatrixRMaj x);
+
+    // update the model in place with a b x d block, one row per sample; by default the samples are
+    // applied one at a time
+    default void updateBlock(StreamPCAModelsState state, DMatrixRMaj X) {
+        state.ensureBatchWorkspace(X.numRows, X.numCols, state.getQ().numCols());
+        DMatrixRMaj row = state.getWorkRow();
+        for (int j = 0; j < X.numRows; j++) {
+            System.arraycopy(X.data, j * X.numCols, row.data, 0, X.numCols);
+            update(state, row);
+        }
+    }
+
+    // remove a 1 x d sample from the model, for the exact sliding window; only called when
+    // supportsDowndate() is true
+    default void downdate(StreamPCAModelsState state, DMatrixRMaj x) {
+        throw new UnsupportedOperationException("PCA algorithm " + getName() + " cannot remove samples");
+    }
+
+    // updateBlock is a block update of its own rather than the per-sample loop
+    boolean supportsBlocks();
+
+    // downdate is implemented; window weighting then runs on the algorithm instead of the window scatter
+    boolean supportsDowndate();
+
+    // models of this type can be combined by StreamPCAModelsMerge (partial models of keyed streams)
+    boolean isMergeable();
+
+    // every update leaves Q orthonormal (e.g. through a QR step), so the orthonormality monitor of
+    // StreamPCAModels has nothing to repair
+    default boolean keepsOrthonormal() {
+        return false;
+    }
+}
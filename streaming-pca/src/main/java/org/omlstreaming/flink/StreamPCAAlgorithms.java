@@ -0,0 +1,197 @@
+package org.omlstreaming.flink;
+
+import org.ejml.data.DMatrixRMaj;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+// Registry of the streaming PCA algorithms by model type. The built-in algorithms are registered first,
+// then every StreamPCAAlgorithm found by ServiceLoader on the class path of this class; a model type
+// registered twice is a configuration error. The registry is built once per class loader.
+public final class StreamPCAAlgorithms {
+
+    private static final Map<String, StreamPCAAlgorithm> ALGORITHMS = load();
+
+    private StreamPCAAlgorithms() {
+    }
+
+    private static Map<String, StreamPCAAlgorithm> load() {
+        Map<String, StreamPCAAlgorithm> algorithms = new LinkedHashMap<>();
+        register(algorithms, new CovarianceFree());
+        register(algorithms, new Hebbian("ghapca", false, false));
+        register(algorithms, new Hebbian("sgaexpca", true, true));
+        register(algorithms, new Hebbian("sgannpca", true, false));
+        register(algorithms, new IncrementalSVD());
+        for (StreamPCAAlgorithm algorithm : ServiceLoader.load(StreamPCAAlgorithm.class,
+                StreamPCAAlgorithms.class.getClassLoader())) {
+            register(algorithms, algorithm);
+        }
+        return Collections.unmodifiableMap(algorithms);
+    }
+
+    private static void register(Map<String, StreamPCAAlgorithm> algorithms, StreamPCAAlgorithm algorithm) {
+        StreamPCAAlgorithm previous = algorithms.putIfAbsent(algorithm.getName(), algorithm);
+        if (previous != null) {
+            throw new IllegalArgumentException("PCA model type " + algorithm.getName() + " is registered by both "
+                    + previous.getClass().getName() + " and " + algorithm.getClass().getName());
+        }
+    }
+
+    // algorithm of a model type, unknown model types are rejected
+    public static StreamPCAAlgorithm get(String modelType) {
+        StreamPCAAlgorithm algorithm = ALGORITHMS.get(modelType);
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Unknown PCA model type " + modelType + ", expected one of "
+                    + ALGORITHMS.keySet());
+        }
+        return algorithm;
+    }
+
+    public static Set<String> getModelTypes() {
+        return ALGORITHMS.keySet();
+    }
+
+    //     Covariance Free algorithm for PCA (ccpca)
+    static final class CovarianceFree implements StreamPCAAlgorithm {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String getName() {
+            return "ccpca";
+        }
+
+        @Override
+        public void update(StreamPCAModelsState state, DMatrixRMaj x) {
+            StreamPCAModels.CovarianceFreeIncrementalPCA(state, x);
+        }
+
+        @Override
+        public void updateBlock(StreamPCAModelsState state, DMatrixRMaj X) {
+            StreamPCAModels.CovarianceFreeIncrementalPCABlock(state, X);
+        }
+
+        @Override
+        public boolean supportsBlocks() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsDowndate() {
+            return false;
+        }
+
+        @Override
+        public boolean isMergeable() {
+            return true;
+        }
+    }
+
+    //     Hebbian family: Generalized Hebbian Algorithm (ghapca), Stochastic Gradient Ascent exact (sgaexpca)
+    //     and neural network (sgannpca) versions
+    static final class Hebbian implements StreamPCAAlgorithm {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final boolean sga;
+        private final boolean exact;
+
+        Hebbian(String nameInit, boolean sgaInit, boolean exactInit) {
+            name = nameInit;
+            sga = sgaInit;
+            exact = exactInit;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void update(StreamPCAModelsState state, DMatrixRMaj x) {
+            if (!sga) {
+                StreamPCAModels.GeneralizedHebbianPCA(state, x);
+            } else if (exact) {
+                StreamPCAModels.StochasticGradientAscentExactPCA(state, x);
+            } else {
+                StreamPCAModels.StochasticGradientAscentNeuralNetPCA(state, x);
+            }
+        }
+
+        @Override
+        public void updateBlock(StreamPCAModelsState state, DMatrixRMaj X) {
+            StreamPCAModels.HebbianPCABlock(state, X, sga, exact);
+        }
+
+        @Override
+        public boolean supportsBlocks() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsDowndate() {
+            return false;
+        }
+
+        @Override
+        public boolean isMergeable() {
+            return true;
+        }
+
+        // the exact version re-orthonormalises Q with a QR step on every update
+        @Override
+        public boolean keepsOrthonormal() {
+            return sga && exact;
+        }
+    }
+
+    //     Incremental SVD with rank truncation (isvd)
+    static final class IncrementalSVD implements StreamPCAAlgorithm {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String getName() {
+            return "isvd";
+        }
+
+        @Override
+        public void update(StreamPCAModelsState state, DMatrixRMaj x) {
+            StreamPCAModels.IncrementalSVDPCA(state, x);
+        }
+
+        @Override
+        public void updateBlock(StreamPCAModelsState state, DMatrixRMaj X) {
+            StreamPCAModels.IncrementalSVDPCA(state, X);
+        }
+
+        @Override
+        public void downdate(StreamPCAModelsState state, DMatrixRMaj x) {
+            StreamPCAModels.IncrementalSVDDowndate(state, x);
+        }
+
+        @Override
+        public boolean supportsBlocks() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsDowndate() {
+            return true;
+        }
+
+        @Override
+        public boolean isMergeable() {
+            return true;
+        }
+
+        @Override
+        public boolean keepsOrthonormal() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.omlstreaming.flink;
+
+// Dense vector operations of the per-sample updates, on row-major arrays as held by DMatrixRMaj. The
+// implementation is chosen once per JVM by StreamPCAKernels: the scalar loops below or, on JDK 17+ with
+// the jdk.incubator.vector module, StreamPCAVectorKernel. Implementations keep no state.
+interface StreamPCAKernel {
+
+    // name selected with -Domlstreaming.pca.kernel, e.g. "scalar"
+    String getName();
+
+    // x' y over the first n values
+    double dot(double[] x, double[] y, int n);
+
+    // y = A' x, A of rows x cols, x of rows and y of cols values
+    void multTransA(double[] A, int rows, int cols, double[] x, double[] y);
+
+    // |x - A y|^2, A of rows x cols, x of rows and y of cols values
+    double residual(double[] A, int rows, int cols, double[] x, double[] y);
+
+    // A = A + alpha u v' in place, A of rows x cols, u of rows and v of cols values
+    void rankOne(double[] A, int rows, int cols, double alpha, double[] u, double[] v);
+
+    // plain loops, the reference implementation and the fallback on every JVM
+    final class Scalar implements StreamPCAKernel {
+
+        @Override
+        public String getName() {
+            return "scalar";
+        }
+
+        @Override
+        public double dot(double[] x, double[] y, int n) {
+            double total = 0.0;
+            for (int i = 0; i < n; i++) {
+                total += x[i] * y[i];
+            }
+            return total;
+        }
+
+        @Override
+        public void multTransA(double[] A, int rows, int cols, double[] x, double[] y) {
+            // row after row, y += x_r * a_r keeps the accesses to A sequential
+            for (int c = 0; c < cols; c++) {
+                y[c] = 0.0;
+            }
+            for (int r = 0, idx = 0; r < rows; r++) {
+                double xr = x[r];
+                for (int c = 0; c < cols; c++, idx++) {
+                    y[c] += A[idx] * xr;
+                }
+            }
+        }
+
+        @Override
+        public double residual(double[] A, int rows, int cols, double[] x, double[] y) {
+            double total = 0.0;
+            for (int r = 0, idx = 0; r < rows; r++) {
+                double e = x[r];
+                for (int c = 0; c < cols; c++, idx++) {
+                    e -= A[idx] * y[c];
+                }
+                total += e * e;
+            }
+            return total;
+        }
+
+        @Override
+        public void rankOne(double[] A, int rows, int cols, double alpha, double[] u, double[] v) {
+            for (int r = 0, idx = 0; r < rows; r++) {
+                double au = alpha * u[r];
+                for (int c = 0; c < cols; c++, idx++) {
+                    A[idx] += au * v[c];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.omlstreaming.flink;
+
+// Selection of the StreamPCAKernel used by all models of the JVM, made once when the class is loaded.
+// -Domlstreaming.pca.kernel=auto (default) takes the Vector API kernel when it can be loaded and falls
+// back to the scalar loops otherwise, "scalar" and "vector" force one of them. The Vector API kernel
+// is only compiled by the jdk17 profile of the build and needs --add-modules jdk.incubator.vector on
+// the task manager JVMs (env.java.opts), older JVMs run the scalar kernel.
+final class StreamPCAKernels {
+
+    static final String PROPERTY = "omlstreaming.pca.kernel";
+
+    private static final String VECTOR_KERNEL = "org.omlstreaming.flink.StreamPCAVectorKernel";
+
+    private static final StreamPCAKernel KERNEL = select(System.getProperty(PROPERTY, "auto"));
+
+    private StreamPCAKernels() {
+    }
+
+    static StreamPCAKernel get() {
+        return KERNEL;
+    }
+
+    static StreamPCAKernel scalar() {
+        return new StreamPCAKernel.Scalar();
+    }
+
+    // Vector API kernel, null when it is not on the class path or the JVM lacks jdk.incubator.vector
+    static StreamPCAKernel vector() {
+        try {
+            return (StreamPCAKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    static StreamPCAKernel select(String kernel) {
+        StreamPCAKernel selected;
+        switch (kernel) {
+            case "auto":
+                selected = vector();
+                if (selected == null) {
+                    selected = scalar();
+                }
+                break;
+            case "scalar":
+                selected = scalar();
+                break;
+            case "vector":
+                selected = vector();
+                if (selected == null) {
+                    throw new IllegalArgumentException("Vector API kernel of the streaming PCA is not available, it"
+                            + " needs the jdk17 build and --add-modules jdk.incubator.vector");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown streaming PCA kernel " + kernel
+                        + ", expected auto, scalar or vector");
+        }
+        return selected;
+    }
+}
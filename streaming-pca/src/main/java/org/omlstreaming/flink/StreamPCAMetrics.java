@@ -0,0 +1,150 @@
+package org.omlstreaming.flink;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.MeterView;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.metrics.SimpleCounter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Instrumentation of a streaming PCA operator, registered under <operator>.pca.<model type>:
+//     latencyMicros     histogram of ingest (event timestamp) to emit latency
+//     updateNanos       histogram of the model update time
+//     eventsPerSecond   meter of the processed events
+//     allocatedBytesPerEvent, gcCount, gcTimeMillis   gauges, the first one of the task thread
+// The task thread only reads the clocks and records into HdrHistogram recorders. A daemon thread
+// closes an interval every intervalMillis, hands it to the Flink reporters and, when a log file is
+// given, appends both histograms (tagged latency and update-<model type>) and a comment line with
+// the gauges to an HdrHistogram interval log, from which any percentile can be read back offline.
+public class StreamPCAMetrics {
+
+    static final long MAX_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+    static final long MAX_UPDATE_NANOS = TimeUnit.SECONDS.toNanos(10);
+    static final int SIGNIFICANT_DIGITS = 3;
+
+    private final String modelType;
+    private final HdrHistogramMetric latency;
+    private final HdrHistogramMetric updateTime;
+    private final SimpleCounter events;
+
+    // the task thread, its allocations are read from the snapshot thread
+    private final long taskThreadId;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private long lastAllocated = -1;
+    private long lastEvents = 0;
+    private long lastSnapshotMillis = System.currentTimeMillis();
+    private volatile double allocatedBytesPerEvent = Double.NaN;
+
+    private ScheduledExecutorService snapshotter;
+    private HistogramLogWriter log;
+
+    // to be created on the task thread, e.g. in open()
+    public StreamPCAMetrics(MetricGroup operatorGroup, String modelTypeInit) {
+        modelType = modelTypeInit;
+        taskThreadId = Thread.currentThread().getId();
+
+        MetricGroup group = operatorGroup.addGroup("pca").addGroup(modelType);
+        latency = group.histogram("latencyMicros", new HdrHistogramMetric(MAX_LATENCY_MICROS, SIGNIFICANT_DIGITS));
+        updateTime = group.histogram("updateNanos", new HdrHistogramMetric(MAX_UPDATE_NANOS, SIGNIFICANT_DIGITS));
+        events = group.counter("events", new SimpleCounter());
+        group.meter("eventsPerSecond", new MeterView(events, 60));
+        group.gauge("allocatedBytesPerEvent", (Gauge<Double>) () -> allocatedBytesPerEvent);
+        group.gauge("gcCount", (Gauge<Long>) () -> gcTotals()[0]);
+        group.gauge("gcTimeMillis", (Gauge<Long>) () -> gcTotals()[1]);
+    }
+
+    // close an interval every intervalMillis, appending it to logFile unless that is null
+    public void start(long intervalMillis, String logFile) throws FileNotFoundException {
+        if (logFile != null) {
+            File file = new File(logFile);
+            if (file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+            log = new HistogramLogWriter(file);
+            log.outputLogFormatVersion();
+            log.outputStartTime(System.currentTimeMillis());
+            log.outputLegend();
+        }
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pca-metrics-" + modelType);
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleAtFixedRate(this::snapshot, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long startUpdate() {
+        return System.nanoTime();
+    }
+
+    public void endUpdate(long startNanos) {
+        updateTime.update(System.nanoTime() - startNanos);
+        events.inc();
+    }
+
+    // latency of an event leaving the operator now, from its timestamp in epoch milliseconds
+    public void emitted(long timestampMillis) {
+        latency.update((System.currentTimeMillis() - timestampMillis) * 1000L);
+    }
+
+    synchronized void snapshot() {
+        long now = System.currentTimeMillis();
+        Histogram latencyInterval = latency.nextInterval();
+        Histogram updateInterval = updateTime.nextInterval();
+
+        long allocated = threads instanceof com.sun.management.ThreadMXBean
+                ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(taskThreadId) : -1;
+        long eventCount = events.getCount();
+        double rate = (eventCount - lastEvents) * 1000.0 / Math.max(now - lastSnapshotMillis, 1L);
+        if (allocated >= 0 && lastAllocated >= 0 && eventCount > lastEvents) {
+            allocatedBytesPerEvent = (allocated - lastAllocated) / (double) (eventCount - lastEvents);
+        }
+        lastAllocated = allocated;
+        lastEvents = eventCount;
+        lastSnapshotMillis = now;
+
+        if (log != null) {
+            latencyInterval.setTag("latency");
+            latencyInterval.setEndTimeStamp(now);
+            updateInterval.setTag("update-" + modelType);
+            updateInterval.setEndTimeStamp(now);
+            log.outputIntervalHistogram(latencyInterval);
+            log.outputIntervalHistogram(updateInterval);
+            long[] gc = gcTotals();
+            log.outputComment(String.format("events/s=%.1f allocatedBytesPerEvent=%.1f gcCount=%d gcTimeMillis=%d",
+                    rate, allocatedBytesPerEvent, gc[0], gc[1]));
+        }
+    }
+
+    private static long[] gcTotals() {
+        long count = 0, time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0L);
+            time += Math.max(gc.getCollectionTime(), 0L);
+        }
+        return new long[]{count, time};
+    }
+
+    public void close() {
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+            snapshotter = null;
+        }
+        synchronized (this) {
+            if (log != null) {
+                snapshot();
+                log.close();
+                log = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.omlstreaming.flink;
+
+import java.io.Serializable;
+
+// Options of a streaming PCA model on top of its type and initial matrices, shipped with the job by
+// the holders of the models (SharedStreamPCAModel, KeyedStreamPCAFunction) and applied to the model
+// they build on the task managers. The options are checked when they are applied, see StreamPCAModels.
+public class StreamPCAModelConfig implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // weighting of the past samples and the half-life of exponential forgetting
+    String weighting = "cumulative";
+    double halfLife = 0.0;
+    // samples and components of the batch PCA seeding the model, 0 keeps the initial matrices
+    int bootstrapSamples = 0;
+    int bootstrapComps = 0;
+    // "float64" or "float32" precision of the model in keyed state and checkpoints
+    String storagePrecision = "float64";
+    // adaptive rank: explained variance target and margin, rank bounds and patience, 0 keeps the rank
+    double rankTarget = 0.0;
+    double rankMargin = 0.0;
+    int rankMin = 1;
+    int rankMax = 0;
+    int rankPatience = 1;
+    // re-orthonormalisation tolerance on ||Q'Q - I||_F and period in updates, 0 disables either
+    double orthoTolerance = 0.0;
+    int orthoEvery = 0;
+    // gain schedule of the gradient algorithms, its constant, rmsprop decay and per-component scale
+    String gainSchedule = "inverse-square";
+    double gainConstant = 1.0;
+    double gainDecay = 0.99;
+    double[] gainScale;
+
+    // "cumulative", "exponential" (halfLife samples) or "window" (the last wS samples)
+    public void setWeighting(String weightingInit, double halfLifeInit) {
+        weighting = weightingInit;
+        halfLife = halfLifeInit;
+    }
+
+    // seed the model with a batch PCA of its first samples
+    public void setBootstrap(int samples, int comps) {
+        bootstrapSamples = samples;
+        bootstrapComps = comps;
+    }
+
+    // "float64" (default) or "float32"
+    public void setStoragePrecision(String precision) {
+        storagePrecision = precision;
+    }
+
+    // grow and shrink the number of components with the explained variance
+    public void setAdaptiveRank(double target, double margin, int min, int max, int patience) {
+        rankTarget = target;
+        rankMargin = margin;
+        rankMin = min;
+        rankMax = max;
+        rankPatience = patience;
+    }
+
+    // re-orthonormalise Q past a drift tolerance or every given number of updates
+    public void setOrthonormalisation(double tolerance, int every) {
+        orthoTolerance = tolerance;
+        orthoEvery = every;
+    }
+
+    // gains of the gradient algorithms
+    public void setGainSchedule(String schedule, double constant, double decay, double[] scale) {
+        gainSchedule = schedule;
+        gainConstant = constant;
+        gainDecay = decay;
+        gainScale = scale;
+    }
+
+    // set every option on a freshly built model
+    public void applyTo(StreamPCAModels model) {
+        model.setWeighting(weighting, halfLife);
+        model.setBootstrap(bootstrapSamples, bootstrapComps);
+        model.setStoragePrecision(storagePrecision);
+        model.setAdaptiveRank(rankTarget, rankMargin, rankMin, rankMax, rankPatience);
+        model.setOrthonormalisation(orthoTolerance, orthoEvery);
+        model.setGainSchedule(gainSchedule, gainConstant, gainDecay, gainScale);
+    }
+}
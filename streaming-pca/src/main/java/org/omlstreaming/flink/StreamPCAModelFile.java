@@ -0,0 +1,179 @@
+package org.omlstreaming.flink;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.ops.MatrixIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Initial PCA model (eigenvalues, eigenvectors, centre) in a binary file, shipped to the operators as
+// its path and the offsets of the matrices instead of the matrices themselves. The file holds the
+// three matrices back to back in the layout of SensorDataSet: number of rows and columns (int)
+// followed by the values row after row (double), all little-endian; the eigenvalues are q x 1, the
+// eigenvectors d x q and the centre 1 x d. Every task maps the file read only on first use and copies
+// the matrices it needs, so the job graph stays small whatever the model size. The file must be
+// readable at the same path by the client and the task managers (shared or replicated file system).
+public final class StreamPCAModelFile implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int EIGENVALUES = 0;
+    static final int EIGENVECTORS = 1;
+    static final int CENTER = 2;
+
+    private final String path;
+    private final long[] offsets;
+    private final int[] rows;
+    private final int[] cols;
+
+    private transient MappedByteBuffer mapped;
+
+    private StreamPCAModelFile(String pathInit, long[] offsetsInit, int[] rowsInit, int[] colsInit) {
+        path = pathInit;
+        offsets = offsetsInit;
+        rows = rowsInit;
+        cols = colsInit;
+        if (rows[EIGENVALUES] != cols[EIGENVECTORS] || cols[EIGENVALUES] != 1
+                || rows[CENTER] != 1 || cols[CENTER] != rows[EIGENVECTORS]) {
+            throw new IllegalArgumentException("PCA model file " + path + " holds eigenvalues of " + rows[EIGENVALUES]
+                    + " x " + cols[EIGENVALUES] + ", eigenvectors of " + rows[EIGENVECTORS] + " x " + cols[EIGENVECTORS]
+                    + " and a centre of " + rows[CENTER] + " x " + cols[CENTER]);
+        }
+    }
+
+    // model file at path, only the matrix headers are read
+    public static StreamPCAModelFile open(String path) throws IOException {
+        long[] offsets = new long[3];
+        int[] rows = new int[3];
+        int[] cols = new int[3];
+        ByteBuffer header = ByteBuffer.allocate(SensorDataSet.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+             FileChannel channel = raf.getChannel()) {
+            long offset = 0;
+            for (int m = 0; m < 3; m++) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (channel.read(header, offset + header.position()) < 0) {
+                        throw new IOException("PCA model file " + path + " ends before matrix " + m);
+                    }
+                }
+                offsets[m] = offset;
+                rows[m] = header.getInt(0);
+                cols[m] = header.getInt(Integer.BYTES);
+                offset += SensorDataSet.HEADER_BYTES + (long) rows[m] * cols[m] * Double.BYTES;
+            }
+            if (offset != channel.size()) {
+                throw new IOException("PCA model file " + path + " of " + channel.size()
+                        + " bytes does not match its matrices of " + offset + " bytes");
+            }
+        }
+        return new StreamPCAModelFile(path, offsets, rows, cols);
+    }
+
+    // binary model file from the EJML CSV files of the eigenvalues, eigenvectors and centre (a column,
+    // as written by the batch PCA), converted once and reused as long as it is newer than all of them
+    public static StreamPCAModelFile convertCSV(String eigValsFile, String eigVecsFile, String centerFile,
+                                                String path) throws IOException {
+        File binary = new File(path);
+        long newest = Math.max(new File(eigValsFile).lastModified(),
+                Math.max(new File(eigVecsFile).lastModified(), new File(centerFile).lastModified()));
+        if (!binary.exists() || binary.lastModified() < newest) {
+            DMatrixRMaj center = MatrixIO.loadCSV(centerFile, true);
+            center.reshape(1, center.getNumElements());
+            write(path, MatrixIO.loadCSV(eigValsFile, true), MatrixIO.loadCSV(eigVecsFile, true), center);
+        }
+        return open(path);
+    }
+
+    // model file of the given matrices, written to a temporary file first so readers never map a half
+    // written model
+    public static void write(String path, DMatrixRMaj eigVals, DMatrixRMaj eigVecs, DMatrixRMaj center)
+            throws IOException {
+        File tmp = new File(path + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            for (DMatrixRMaj m : new DMatrixRMaj[]{eigVals, eigVecs, center}) {
+                if (buffer.remaining() < SensorDataSet.HEADER_BYTES) {
+                    writeOut(channel, buffer);
+                }
+                buffer.putInt(m.numRows).putInt(m.numCols);
+                int count = m.getNumElements();
+                for (int i = 0; i < count; i++) {
+                    if (!buffer.hasRemaining()) {
+                        writeOut(channel, buffer);
+                    }
+                    buffer.putDouble(m.data[i]);
+                }
+            }
+            writeOut(channel, buffer);
+        }
+        File binary = new File(path);
+        if (!tmp.renameTo(binary) && !(binary.delete() && tmp.renameTo(binary))) {
+            throw new IOException("Cannot move the converted PCA model to " + path);
+        }
+    }
+
+    private static void writeOut(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getOffset(int matrix) {
+        return offsets[matrix];
+    }
+
+    // sample dimension d
+    public int getNumVariables() {
+        return rows[EIGENVECTORS];
+    }
+
+    // number of principal components q
+    public int getNumComponents() {
+        return cols[EIGENVECTORS];
+    }
+
+    public DMatrixRMaj getEigenvalues() throws IOException {
+        return read(EIGENVALUES);
+    }
+
+    public DMatrixRMaj getEigenvectors() throws IOException {
+        return read(EIGENVECTORS);
+    }
+
+    public DMatrixRMaj getCenter() throws IOException {
+        return read(CENTER);
+    }
+
+    // heap copy of a matrix of the file, the models update their matrices in place
+    private synchronized DMatrixRMaj read(int matrix) throws IOException {
+        if (mapped == null) {
+            try (RandomAccessFile raf = new RandomAccessFile(path, "r");
+                 FileChannel channel = raf.getChannel()) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("PCA model file " + path + " is too large to be mapped at once");
+                }
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        ByteBuffer view = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position((int) offsets[matrix] + SensorDataSet.HEADER_BYTES);
+        DMatrixRMaj m = new DMatrixRMaj(rows[matrix], cols[matrix]);
+        view.asDoubleBuffer().get(m.data, 0, m.getNumElements());
+        return m;
+    }
+}
@@ -1,151 +1,695 @@
 package org.omlstreaming.flink;
 
 import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.dense.row.NormOps_DDRM;
+import org.ejml.dense.row.SingularOps_DDRM;
 import org.ejml.dense.row.factory.DecompositionFactory_DDRM;
+import org.ejml.interfaces.decomposition.EigenDecomposition_F64;
 import org.ejml.interfaces.decomposition.QRDecomposition;
+import org.ejml.interfaces.decomposition.SingularValueDecomposition_F64;
 import org.ejml.simple.SimpleMatrix;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
-class StreamPCAModelsState implements Serializable {
+public class StreamPCAModels implements Serializable{
+
+    // dense vector operations of the per-sample updates, scalar or Vector API, see StreamPCAKernels
+    private static final StreamPCAKernel KERNEL = StreamPCAKernels.get();
+
+    // widest samples the sliding window keeps a scatter matrix for, 2 MB per model at 512 variables
+    static final int MAX_SCATTER_VARIABLES = 512;
+
+    // orthogonal iteration steps of the once-per-window refresh of a downdated window, and the relative
+    // change of the eigenvalues it stops at
+    static final int MAX_WINDOW_REFRESH_STEPS = 20;
+    static final double WINDOW_REFRESH_TOLERANCE = 1e-10;
+
+    private transient StreamPCAModelsState modelState;
+
+    // update rule of the model type, resolved once here instead of on every sample
+    private final StreamPCAAlgorithm algorithm;
 
-    private transient SimpleMatrix lambda;
-    private transient SimpleMatrix Q;
-    private transient SimpleMatrix xbar;
-    private int n;
-    private String pcaModelType;
-    private int numPcaComps;
-    private int winSize;
+    // work buffers of the updates, attached to each state before it is updated
+    private transient StreamPCAWorkspace workspace;
 
-    void setLambda(SimpleMatrix lambda) {
-        this.lambda = lambda;
+    public StreamPCAModelsState getModelState() {
+        return modelState;
     }
 
-    void setQ(SimpleMatrix q) {
-        Q = q;
+    public void setModelState(StreamPCAModelsState modelState) {
+        this.modelState = modelState;
     }
 
-    void setN(int n) {
-        this.n = n;
+    public StreamPCAModels(String modelType, int nC, int wS, SimpleMatrix initEigVal, SimpleMatrix initEigVecs, SimpleMatrix pcaCenter, int iter){
+        modelState = new StreamPCAModelsState(nC, wS);
+
+        if (modelType != null) {
+            modelState.setPcaModelType(modelType);
+        }
+        algorithm = StreamPCAAlgorithms.get(modelState.getPcaModelType());
+
+        // the update kernels work in place, keep the caller's init matrices untouched
+        if (initEigVal != null) {
+            modelState.setLambda(initEigVal.copy());
+        }
+
+        if (initEigVecs != null) {
+            modelState.setQ(initEigVecs.copy());
+        }
+
+        if (pcaCenter != null) {
+            modelState.setXbar(pcaCenter.copy());
+        }
+
+        if (iter != 0) {
+            modelState.setN(iter);
+        }
     }
 
-    void setXbar(SimpleMatrix xbar) {
-        this.xbar = xbar;
+    public StreamPCAModels(String modelType, int nC, int wS, SimpleMatrix initEigVal, SimpleMatrix initEigVecs, SimpleMatrix pcaCenter, int iter, int blockSize){
+        this(modelType, nC, wS, initEigVal, initEigVecs, pcaCenter, iter);
+        modelState.setBlockSize(blockSize);
     }
 
-    SimpleMatrix getLambda(){
-        return lambda;
+    private StreamPCAWorkspace workspace() {
+        if (workspace == null) {
+            workspace = new StreamPCAWorkspace();
+        }
+        return workspace;
     }
 
-    SimpleMatrix getQ(){
-        return Q;
+    public StreamPCAAlgorithm getAlgorithm() {
+        return algorithm;
     }
 
-    SimpleMatrix getXbar(){
-        return xbar;
+    // seed the model with a batch PCA of its first samples instead of the initial matrices, see bootstrapModel
+    public void setBootstrap(int samples, int comps) {
+        modelState.setBootstrap(samples, comps);
     }
 
-    int getN(){
-        return n;
+    // adapt the number of components to the explained variance: grow while the model explains less than
+    // target of the total variance, shrink while it explains target + margin without its last component,
+    // between min and max components (0 for up to d) and after patience updates in a row asking for the same change
+    public void setAdaptiveRank(double target, double margin, int min, int max, int patience) {
+        modelState.setAdaptiveRank(target, margin, min, max, patience);
     }
 
-    String getPcaModelType() {
-        return pcaModelType;
+    // gains of the gradient algorithms (ghapca, sgaexpca, sgannpca): "inverse-square" c/n^2 (default),
+    // "harmonic" c/n, "constant" c, "adagrad" or "rmsprop" (past squares decayed by `decay` per sample)
+    // c/sqrt(accumulated y_i^2), each optionally scaled per component by scale (null for none)
+    public void setGainSchedule(String schedule, double constant, double decay, double[] scale) {
+        modelState.setGainSchedule(schedule, constant, decay, scale);
     }
 
-    void setPcaModelType(String m) {
-        pcaModelType = m;
+    // re-orthonormalise Q with modified Gram-Schmidt once the monitored ||Q'Q - I||_F passes tolerance
+    // or every `every` updates (0 disables either); for the algorithms that let Q drift (ghapca,
+    // sgannpca, ccpca), the others keep Q orthonormal on every update and skip the monitor
+    public void setOrthonormalisation(double tolerance, int every) {
+        modelState.setOrthonormalisation(tolerance, every);
     }
 
-    void setNumPcaComps(int n) {
-        numPcaComps = n;
+    // "float64" (default) or "float32": precision the serializer stores the model with, see
+    // StreamPCAModelsState. The model is held and updated in double either way
+    public void setStoragePrecision(String precision) {
+        modelState.setStoragePrecision(precision);
     }
 
-    int getNumPcaComps() {
-        return numPcaComps;
+    // keep lambda, Q and xbar of the models in direct buffers between updates, see StreamPCAModelsState.
+    // The holder of the models parks each one after using it (StreamPCAModelsState.park), the kernels
+    // attach it to the model matrices of their workspace on first access
+    public void setOffHeap(boolean offHeap) {
+        modelState.setOffHeap(offHeap);
     }
 
-    void setWinSize(int s) {
-        winSize = s;
+    // weighting of the past samples of the model, see StreamPCAModelsState: "cumulative" (default),
+    // "exponential" with the given half-life in samples, or "window" over the last wS samples
+    public void setWeighting(String weighting, double halfLife) {
+        if (weighting.equals("window") && !algorithm.supportsDowndate()
+                && modelState.getQ().numRows() > MAX_SCATTER_VARIABLES) {
+            throw new IllegalArgumentException("Sliding window PCA of type " + modelState.getPcaModelType()
+                    + " is limited to " + MAX_SCATTER_VARIABLES + " variables, got " + modelState.getQ().numRows()
+                    + "; use a model type that can remove samples (isvd)");
+        }
+        modelState.setWeighting(weighting, halfLife);
     }
 
-    public StreamPCAModelsState(int nC, int wS) {
-        setNumPcaComps(nC);
-        setWinSize(wS);
-        setPcaModelType("ccpca");
-        setLambda(new SimpleMatrix(getNumPcaComps(), 1));
-        setQ(new SimpleMatrix(getNumPcaComps(), getNumPcaComps()));
-        setXbar(new SimpleMatrix(getNumPcaComps(), 1));
-        setN(0);
+    // add one sample to the pending block and run a block update once it holds blockSize samples,
+    // returns true when the model has been updated
+    boolean accumulateStreamPCAModel(StreamPCAModelsState state, double[] sample) {
+        state.setWorkspace(workspace());
+        return accumulateSample(state, sample);
     }
-}
 
-public class StreamPCAModels implements Serializable{
+    private boolean accumulateSample(StreamPCAModelsState state, double[] sample) {
+        // the projections of the scoring only serve a per-sample update straight from the current model
+        if (state.isBootstrapping() || state.getWeighting().equals("window") || state.getBlockSize() > 1) {
+            state.takeProjection();
+        }
+        if (state.isBootstrapping()) {
+            return accumulateBootstrap(state, sample);
+        }
+        if (state.getWeighting().equals("window")) {
+            return algorithm.supportsDowndate() ? accumulateWindowDowndate(state, sample)
+                    : accumulateSlidingWindow(state, sample);
+        }
+        DMatrixRMaj batch = state.getBatch(sample.length);
+        int fill = state.getBatchFill();
+        System.arraycopy(sample, 0, batch.data, fill * batch.numCols, sample.length);
+        fill++;
+        if (fill < batch.numRows) {
+            state.setBatchFill(fill);
+            return false;
+        }
+        state.setBatchFill(0);
+        this.setModelState(this.iterateStreamPCAModel(state, batch));
+        // ccipca and isvd do not start from the projections, they are dropped with the update
+        state.takeProjection();
+        if (state.isOrthonormalising() && !algorithm.keepsOrthonormal()) {
+            this.monitorOrthonormality(state, batch.numRows);
+        }
+        if (state.isAdaptiveRank()) {
+            this.trackTotalVariance(state, batch);
+            this.adaptRank(state, batch);
+        }
+        this.advanceSampleCount(state, batch.numRows);
+        return true;
+    }
 
-    private transient StreamPCAModelsState modelState;
+    // buffer a bootstrap sample, the model is seeded and updated once the buffer is full
+    private boolean accumulateBootstrap(StreamPCAModelsState state, double[] sample) {
+        DMatrixRMaj buffer = state.getBootstrapBuffer(sample.length);
+        int fill = state.getBootstrapFill();
+        System.arraycopy(sample, 0, buffer.data, fill * buffer.numCols, sample.length);
+        fill++;
+        if (fill < buffer.numRows) {
+            state.setBootstrapFill(fill);
+            return false;
+        }
+        this.bootstrapModel(state, buffer);
+        state.setBootstrap(0, 0);
+        return true;
+    }
 
-    public StreamPCAModelsState getModelState() {
-        return modelState;
+    //     Warm start from a batch PCA of the first N samples X: xbar is their mean, Q the first q right
+    //     singular vectors of the centered samples Xc = U S V' and lambda = s_i^2 / N, the eigenpairs of
+    //     their covariance without forming it. n continues from N (capped by exponential forgetting) and
+    //     the SPE moments start from the residuals of the same samples, so the model and its control
+    //     limits are in place when the streaming updates take over. The initial matrices of the model
+    //     are replaced, their sizes do not need to match the samples.
+    private void bootstrapModel(StreamPCAModelsState state, DMatrixRMaj X) {
+        int N = X.numRows, d = X.numCols, q = state.getBootstrapComps();
+        if (q > d) {
+            throw new IllegalArgumentException("PCA bootstrap of " + q + " components needs samples of at least as"
+                    + " many variables, got " + d);
+        }
+        double[] xd = X.data;
+        DMatrixRMaj xbar = new DMatrixRMaj(1, d);
+        double[] md = xbar.data;
+        for (int j = 0; j < N; j++) {
+            for (int r = 0; r < d; r++) {
+                md[r] += xd[j * d + r];
+            }
+        }
+        for (int r = 0; r < d; r++) {
+            md[r] /= N;
+        }
+        for (int j = 0; j < N; j++) {
+            for (int r = 0; r < d; r++) {
+                xd[j * d + r] -= md[r];
+            }
+        }
+
+        // the decomposition works on its own copy, X keeps the centered samples for the residuals
+        SingularValueDecomposition_F64<DMatrixRMaj> svd = DecompositionFactory_DDRM.svd(N, d, false, true, true);
+        if (!svd.decompose(X)) {
+            throw new IllegalStateException("Batch PCA of the " + N + " bootstrap samples failed");
+        }
+        DMatrixRMaj V = svd.getV(null, false);
+        double[] sv = svd.getSingularValues();
+        SingularOps_DDRM.descendingOrder(null, false, sv, svd.numberOfSingularValues(), V, false);
+
+        DMatrixRMaj Q = new DMatrixRMaj(d, q);
+        CommonOps_DDRM.extract(V, 0, d, 0, q, Q, 0, 0);
+        DMatrixRMaj lambda = new DMatrixRMaj(q, 1);
+        for (int c = 0; c < q; c++) {
+            lambda.data[c] = sv[c] * sv[c] / N;
+        }
+        state.setXbar(SimpleMatrix.wrap(xbar));
+        state.setQ(SimpleMatrix.wrap(Q));
+        state.setLambda(SimpleMatrix.wrap(lambda));
+        state.setN(0);
+        this.advanceSampleCount(state, N);
+        double total = 0.0;
+        for (int c = 0, count = svd.numberOfSingularValues(); c < count; c++) {
+            total += sv[c] * sv[c] / N;
+        }
+        state.setTotalVariance(total, N);
+
+        // in-sample residuals |xc|^2 - |Q' xc|^2 of the bootstrap samples
+        state.setSpeStatistics(0L, 0.0, 0.0);
+        double[] qd = Q.data;
+        for (int j = 0; j < N; j++) {
+            double spe = 0.0;
+            for (int r = 0; r < d; r++) {
+                spe += xd[j * d + r] * xd[j * d + r];
+            }
+            for (int c = 0; c < q; c++) {
+                double y = 0.0;
+                for (int r = 0; r < d; r++) {
+                    y += qd[r * q + c] * xd[j * d + r];
+                }
+                spe -= y * y;
+            }
+            StreamPCAMonitor.updateSpeStatistics(state, Math.max(spe, 0.0));
+        }
     }
 
-    public void setModelState(StreamPCAModelsState modelState) {
-        this.modelState = modelState;
+    //     Orthonormality monitor of Q. ||Q'Q - I||_F^2 is the sum over the columns j of
+    //         (q_j'q_j - 1)^2 + sum_(i != j) (q_i'q_j)^2
+    //     and each update refreshes the term of one column from the Gram row Q'q_j, O(d q) like the
+    //     update itself and sequential over the rows of Q, so after q updates the estimate covers the
+    //     whole of Q with terms at most q updates old. A modified Gram-Schmidt pass, O(d q^2), runs
+    //     only when the estimate passes the tolerance or the period is reached. It keeps the order and
+    //     direction of the components and leaves lambda as it is.
+    private void monitorOrthonormality(StreamPCAModelsState state, int b) {
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        int d = Q.numRows, q = Q.numCols;
+        double[] qd = Q.data;
+        double[] drift = state.getOrthoDrift(q);
+        int j = state.nextOrthoColumn(q);
+
+        // column j into a work buffer, then its Gram row
+        DMatrixRMaj column = state.getWorkV();
+        column.reshape(d, 1);
+        for (int r = 0; r < d; r++) {
+            column.data[r] = qd[r * q + j];
+        }
+        double[] gram = workspace().gramBuffer(q);
+        KERNEL.multTransA(qd, d, q, column.data, gram);
+        double term = 0.0;
+        for (int i = 0; i < q; i++) {
+            double g = i == j ? gram[i] - 1.0 : gram[i];
+            term += g * g;
+        }
+        drift[j] = term;
+
+        double total = 0.0;
+        for (int i = 0; i < q; i++) {
+            total += drift[i];
+        }
+        long count = state.getOrthoCount() + b;
+        double tolerance = state.getOrthoTolerance();
+        int every = state.getOrthoEvery();
+        if ((tolerance > 0.0 && total > tolerance * tolerance) || (every > 0 && count >= every)) {
+            modifiedGramSchmidt(Q);
+            Arrays.fill(drift, 0.0);
+            count = 0L;
+        }
+        state.setOrthoCount(count);
     }
 
-    public StreamPCAModels(String modelType, int nC, int wS, SimpleMatrix initEigVal, SimpleMatrix initEigVecs, SimpleMatrix pcaCenter, int iter){
-        modelState = new StreamPCAModelsState(nC, wS);
+    // in place, column after column against the already orthonormal ones
+    private static void modifiedGramSchmidt(DMatrixRMaj Q) {
+        double[] qd = Q.data;
+        int d = Q.numRows, q = Q.numCols;
+        for (int c = 0; c < q; c++) {
+            for (int i = 0; i < c; i++) {
+                double dot = columnDot(Q, i, Q, c);
+                for (int r = 0, idx = 0; r < d; r++, idx += q) {
+                    qd[idx + c] -= dot * qd[idx + i];
+                }
+            }
+            double norm = Math.sqrt(columnDot(Q, c, Q, c));
+            if (norm > 0.0) {
+                for (int r = 0, idx = c; r < d; r++, idx += q) {
+                    qd[idx] /= norm;
+                }
+            }
+        }
+    }
 
-        if (modelType != null) {
-            modelState.setPcaModelType(modelType);
+    //     Total variance of the samples, trace of their covariance, as the weighted mean of |x - xbar|^2
+    //     with the weights of the model (1/(n + 1), capped by exponential forgetting). Its own sample
+    //     count starts it as a plain mean when the model comes with an initial n. The mean after the
+    //     update stands in for the mean of each sample's time.
+    private void trackTotalVariance(StreamPCAModelsState state, DMatrixRMaj X) {
+        double[] xd = X.data, md = state.getXbar().getDDRM().data;
+        int b = X.numRows, d = X.numCols, n = state.getN();
+        double total = state.getTotalVariance();
+        long count = state.getVarianceCount();
+        for (int j = 0; j < b; j++) {
+            double sq = 0.0;
+            for (int r = 0; r < d; r++) {
+                double e = xd[j * d + r] - md[r];
+                sq += e * e;
+            }
+            double f = 1.0 / (Math.min(count, (long) n + j) + 1.0);
+            total = (1.0 - f) * total + f * sq;
+            count++;
         }
+        state.setTotalVariance(total, count);
+    }
 
-        if (initEigVal != null) {
-            modelState.setLambda(initEigVal);
+    //     Online rank selection with hysteresis. The explained variance sum(lambda) / trace decides:
+    //     below rankTarget a component is added, at or above rankTarget + rankMargin without the weakest
+    //     component that component is dropped, in between the rank stays. A change needs rankPatience
+    //     consecutive updates voting for it, so a rank does not flap around the target. A new component
+    //     starts along the residual of the last sample, orthogonal to Q, with the mean variance left
+    //     outside the model per missing direction but no more than the weakest component, so growing
+    //     cannot overshoot into the shrink band; the update algorithms then rotate it into place.
+    private void adaptRank(StreamPCAModelsState state, DMatrixRMaj X) {
+        if (state.getVarianceCount() < state.getRankPatience() || state.getTotalVariance() <= 0.0) {
+            return;
+        }
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        int d = Q.numRows, q = Q.numCols;
+        double explained = 0.0;
+        int weakest = 0;
+        for (int c = 0; c < q; c++) {
+            explained += lambda.data[c];
+            if (lambda.data[c] < lambda.data[weakest]) {
+                weakest = c;
+            }
+        }
+        double total = state.getTotalVariance();
+        int vote = 0;
+        int max = state.getRankMax() == 0 ? d : Math.min(state.getRankMax(), d);
+        if (explained < state.getRankTarget() * total && q < max) {
+            vote = 1;
+        } else if (q > state.getRankMin()
+                && explained - lambda.data[weakest] >= (state.getRankTarget() + state.getRankMargin()) * total) {
+            vote = -1;
+        }
+        int run = state.getRankRun();
+        run = vote == 0 ? 0 : Integer.signum(run) == vote ? run + vote : vote;
+        if (Math.abs(run) < state.getRankPatience()) {
+            state.setRankRun(run);
+            return;
         }
+        state.setRankRun(0);
+        if (vote > 0) {
+            growRank(state, X, Math.min(Math.max(total - explained, 0.0) / (d - q), lambda.data[weakest]));
+        } else {
+            shrinkRank(state, weakest);
+        }
+    }
 
-        if (initEigVecs != null) {
-            modelState.setQ(initEigVecs);
+    // one more component along the residual of the last sample of X, if it has one
+    private void growRank(StreamPCAModelsState state, DMatrixRMaj X, double variance) {
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        int d = Q.numRows, q = Q.numCols;
+        double[] qd = Q.data, md = state.getXbar().getDDRM().data;
+        double[] res = new double[d];
+        int last = (X.numRows - 1) * d;
+        double norm0 = 0.0;
+        for (int r = 0; r < d; r++) {
+            res[r] = X.data[last + r] - md[r];
+            norm0 += res[r] * res[r];
+        }
+        // two Gram-Schmidt passes against the columns of Q
+        for (int pass = 0; pass < 2; pass++) {
+            for (int c = 0; c < q; c++) {
+                double dot = columnDot(Q, c, res);
+                for (int r = 0; r < d; r++) {
+                    res[r] -= dot * qd[r * q + c];
+                }
+            }
+        }
+        double norm = Math.sqrt(KERNEL.dot(res, res, d));
+        if (norm <= 1e-8 * Math.sqrt(norm0)) {
+            return;
+        }
+        DMatrixRMaj grown = new DMatrixRMaj(d, q + 1);
+        for (int r = 0; r < d; r++) {
+            System.arraycopy(qd, r * q, grown.data, r * (q + 1), q);
+            grown.data[r * (q + 1) + q] = res[r] / norm;
         }
+        DMatrixRMaj grownLambda = new DMatrixRMaj(q + 1, 1);
+        System.arraycopy(lambda.data, 0, grownLambda.data, 0, q);
+        grownLambda.data[q] = variance;
+        state.setQ(SimpleMatrix.wrap(grown));
+        state.setLambda(SimpleMatrix.wrap(grownLambda));
+    }
 
-        if (pcaCenter != null) {
-            modelState.setXbar(pcaCenter);
+    // drop component c, the weakest
+    private void shrinkRank(StreamPCAModelsState state, int c) {
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        int d = Q.numRows, q = Q.numCols;
+        DMatrixRMaj shrunk = new DMatrixRMaj(d, q - 1);
+        for (int r = 0; r < d; r++) {
+            System.arraycopy(Q.data, r * q, shrunk.data, r * (q - 1), c);
+            System.arraycopy(Q.data, r * q + c + 1, shrunk.data, r * (q - 1) + c, q - 1 - c);
         }
+        DMatrixRMaj shrunkLambda = new DMatrixRMaj(q - 1, 1);
+        System.arraycopy(lambda.data, 0, shrunkLambda.data, 0, c);
+        System.arraycopy(lambda.data, c + 1, shrunkLambda.data, c, q - 1 - c);
+        state.setQ(SimpleMatrix.wrap(shrunk));
+        state.setLambda(SimpleMatrix.wrap(shrunkLambda));
+        state.removeGainComponent(c);
+    }
 
-        if (iter != 0) {
-            modelState.setN(iter);
+    // n behind the 1/(n + 1) weights of the updates: every sample seen for cumulative weighting,
+    // at most the effective number of samples of the half-life for exponential forgetting
+    private void advanceSampleCount(StreamPCAModelsState state, int b) {
+        long n = (long) state.getN() + b;
+        if (state.getWeighting().equals("exponential")) {
+            n = Math.min(n, state.getEffectiveSamples());
+        }
+        state.setN((int) Math.min(n, Integer.MAX_VALUE));
+    }
+
+    // The 'amnesic' parameter of CCIPCA, extra weight on new samples on top of 1/(n + 1). Exponential
+    // forgetting already sets the weight of the past through the half-life, so it runs without.
+    private static double amnesic(StreamPCAModelsState state) {
+        return state.getWeighting().equals("exponential") ? 0.0 : 3.0;
+    }
+
+    //     Exact sliding window PCA. The window mean (xbar) and scatter matrix S follow the last winSize
+    //     samples: a new sample is a rank-one update of S and, once the window is full, the sample it
+    //     replaces in the ring buffer is a rank-one downdate
+    //         m' = m + (x_in - x_out) / W
+    //         S' = S + (x_in - m)(x_in - m')' - (x_out - m)(x_out - m')'
+    //     Every blockSize samples the eigenvectors take one step of orthogonal iteration Q = qr(S Q)
+    //     from the previous ones, rotated onto the Ritz vectors of S in their span, whose Ritz values
+    //     are the eigenvalues, so the model tracks the window without a d x d eigen decomposition. The window replaces the
+    //     update rule of the model types that cannot remove samples, all of them estimate the same
+    //     eigenspace. S takes d^2 doubles per model, so it is limited to MAX_SCATTER_VARIABLES.
+    private boolean accumulateSlidingWindow(StreamPCAModelsState state, double[] x) {
+        int d = x.length;
+        if (d > MAX_SCATTER_VARIABLES) {
+            throw new IllegalArgumentException("Sliding window PCA of type " + state.getPcaModelType() + " keeps a "
+                    + d + " x " + d + " scatter matrix, at most " + MAX_SCATTER_VARIABLES + " variables are supported;"
+                    + " use a model type that can remove samples (isvd)");
+        }
+        DMatrixRMaj window = state.getWindow(d);
+        DMatrixRMaj S = state.getScatter(d);
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        state.ensureWorkspace(d, Q.numCols);
+
+        int W = window.numRows, head = state.getWindowHead(), fill = state.getWindowFill();
+        double[] md = state.getXbar().getDDRM().data, wd = window.data, sd = S.data;
+        double[] ain = state.getWorkX().data, bin = state.getWorkV().data;
+        double[] aout = state.getWorkB().data, bout = state.getWorkP().data;
+        int off = head * d;
+        boolean full = fill == W;
+        if (!full) {
+            fill++;
+        }
+        for (int r = 0; r < d; r++) {
+            double out = full ? wd[off + r] : 0.0;
+            ain[r] = x[r] - md[r];
+            aout[r] = out - md[r];
+            md[r] += full ? (x[r] - out) / W : ain[r] / fill;
+            bin[r] = x[r] - md[r];
+            bout[r] = out - md[r];
+        }
+        // symmetric rank-one update (and downdate), the upper triangle mirrored to the lower one
+        for (int r = 0; r < d; r++) {
+            for (int c = r; c < d; c++) {
+                double v = 0.5 * (ain[r] * bin[c] + bin[r] * ain[c]);
+                if (full) {
+                    v -= 0.5 * (aout[r] * bout[c] + bout[r] * aout[c]);
+                }
+                sd[r * d + c] += v;
+                sd[c * d + r] = sd[r * d + c];
+            }
+        }
+        System.arraycopy(x, 0, wd, off, d);
+        state.setWindowPosition((head + 1) % W, fill);
+        state.setN(fill);
+
+        int pending = state.getBatchFill() + 1;
+        if (pending < state.getBlockSize()) {
+            state.setBatchFill(pending);
+            return false;
+        }
+        state.setBatchFill(0);
+        if (fill > Q.numCols) {
+            this.refineWindowEigenspace(state, fill);
+        }
+        return true;
+    }
+
+    // Sliding window on an algorithm that can remove samples: the sample leaving the window is downdated
+    // and the new one updated through the algorithm, the ring buffer only keeps the samples to remove.
+    // n counts the samples in the model, so the update weighs the new sample by 1 / fill. A truncated
+    // update drops a little of each sample that its downdate later removes in full, an error the window
+    // would keep for good, so once per window the eigenspace is refreshed from the ring buffer.
+    private boolean accumulateWindowDowndate(StreamPCAModelsState state, double[] x) {
+        int d = x.length;
+        DMatrixRMaj window = state.getWindow(d);
+        state.ensureBatchWorkspace(1, d, state.getQ().numCols());
+        DMatrixRMaj row = state.getWorkRow();
+
+        int W = window.numRows, head = state.getWindowHead(), fill = state.getWindowFill();
+        if (fill == W) {
+            System.arraycopy(window.data, head * d, row.data, 0, d);
+            state.setN(W);
+            algorithm.downdate(state, row);
+        } else {
+            fill++;
+        }
+        System.arraycopy(x, 0, window.data, head * d, d);
+        System.arraycopy(x, 0, row.data, 0, d);
+        state.setN(fill - 1);
+        algorithm.update(state, row);
+        head = (head + 1) % W;
+        state.setWindowPosition(head, fill);
+        state.setN(fill);
+        if (head == 0 && fill > state.getQ().numCols()) {
+            for (int step = 0; step < MAX_WINDOW_REFRESH_STEPS; step++) {
+                if (this.refineWindowEigenspace(state, fill) < WINDOW_REFRESH_TOLERANCE) {
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    // One step of orthogonal iteration of Q on the window scatter matrix followed by a Rayleigh-Ritz step:
+    // the eigenpairs of the q x q projection T = Q' S Q / fill rotate Q onto the eigenvectors of S within
+    // its span, largest first, and are the new eigenvalues. Signs are kept from the previous Q. Returns
+    // the largest change of an eigenvalue relative to the largest eigenvalue.
+    private double refineWindowEigenspace(StreamPCAModelsState state, int fill) {
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        int d = Q.numRows, q = Q.numCols;
+        state.ensureBatchWorkspace(1, d, q);
+        DMatrixRMaj G = state.getWorkG();
+        DMatrixRMaj H = state.getWorkH();
+        DMatrixRMaj T = state.getWorkM();
+
+        H.set(Q);
+        windowScatterProduct(state, Q, G, fill);
+        QRDecomposition<DMatrixRMaj> qrDecomp = state.getWorkQR();
+        qrDecomp.decompose(G);
+        qrDecomp.getQ(Q, true);
+
+        windowScatterProduct(state, Q, G, fill);
+        CommonOps_DDRM.multTransA(Q, G, T);
+        CommonOps_DDRM.scale(1.0 / fill, T);
+        EigenDecomposition_F64<DMatrixRMaj> ritz = state.getWorkspace().ritzDecomposition(q);
+        if (!ritz.decompose(T)) {
+            return 0.0;
+        }
+
+        // G = Q V with the Ritz vectors by decreasing Ritz value, the taken ones marked in the values
+        double[] ld = lambda.data, qd = Q.data, gd = G.data, hd = H.data;
+        double[] values = state.getWorkspace().ritzBuffer(q);
+        for (int c = 0; c < q; c++) {
+            values[c] = ritz.getEigenvalue(c).getReal();
+        }
+        double change = 0.0, largest = 0.0;
+        for (int c = 0; c < q; c++) {
+            int best = 0;
+            for (int i = 1; i < q; i++) {
+                if (values[i] > values[best]) {
+                    best = i;
+                }
+            }
+            double[] vd = ritz.getEigenVector(best).data;
+            double dot = 0.0;
+            for (int r = 0; r < d; r++) {
+                double total = 0.0;
+                for (int i = 0; i < q; i++) {
+                    total += qd[r * q + i] * vd[i];
+                }
+                gd[r * q + c] = total;
+                dot += total * hd[r * q + c];
+            }
+            if (dot < 0.0) {
+                for (int r = 0, idx = c; r < d; r++, idx += q) {
+                    gd[idx] = -gd[idx];
+                }
+            }
+            double value = Math.max(values[best], 0.0);
+            change = Math.max(change, Math.abs(value - ld[c]));
+            largest = Math.max(largest, value);
+            ld[c] = value;
+            values[best] = Double.NEGATIVE_INFINITY;
+        }
+        Q.set(G);
+        return largest > 0.0 ? change / largest : 0.0;
+    }
+
+    // P = S Q for the scatter S of the window, from S where it is kept, otherwise as the sum of
+    // (x - m)((x - m)' Q) over the fill samples of the ring buffer, O(W d q) without forming S
+    private static void windowScatterProduct(StreamPCAModelsState state, DMatrixRMaj Q, DMatrixRMaj P, int fill) {
+        DMatrixRMaj S = state.getScatter();
+        if (S != null) {
+            CommonOps_DDRM.mult(S, Q, P);
+            return;
+        }
+        DMatrixRMaj window = state.getWindow(Q.numRows);
+        int d = Q.numRows, q = Q.numCols;
+        double[] wd = window.data, md = state.getXbar().getDDRM().data, qd = Q.data, pd = P.data;
+        double[] vd = state.getWorkV().data, yd = state.getWorkYB().data;
+        P.zero();
+        for (int j = 0; j < fill; j++) {
+            for (int r = 0; r < d; r++) {
+                vd[r] = wd[j * d + r] - md[r];
+            }
+            Arrays.fill(yd, 0, q, 0.0);
+            for (int r = 0; r < d; r++) {
+                for (int c = 0; c < q; c++) {
+                    yd[c] += vd[r] * qd[r * q + c];
+                }
+            }
+            for (int r = 0; r < d; r++) {
+                for (int c = 0; c < q; c++) {
+                    pd[r * q + c] += vd[r] * yd[c];
+                }
+            }
         }
     }
 
 
     // iterate a PCA model depending on the model
     StreamPCAModelsState iterateStreamPCAModel(StreamPCAModelsState state, SimpleMatrix x) {
-        StreamPCAModelsState iteratedModel;
-        switch (modelState.getPcaModelType()){
-            case "ccpca" : // Covariance Free algorithm for PCA
-                iteratedModel = CovarianceFreeIncrementalPCA(state, x);
-                break;
-            case "ghapca": // Generalized Hebbian Algorithm for PCA
-                iteratedModel = GeneralizedHebbianPCA(state, x);
-                break;
-            case "sgaexpca": // Stochastic Gradient Ascent using exact QR decomposition
-                iteratedModel = StochasticGradientAscentExactPCA(state, x);
-                break;
-            case "sgannpca": // Stochastic Gradient Ascent using a neural network
-                iteratedModel = StochasticGradientAscentNeuralNetPCA(state, x);
-                break;
-            default:
-                // Stochastic Gradient Ascent using exact QR decomposition
-                iteratedModel = StochasticGradientAscentExactPCA(state, x);
-                break;
+        return iterateStreamPCAModel(state, x.getDDRM());
+    }
+
+    // iterate a PCA model with the algorithm of its model type, the state is updated in place,
+    // an n x d input with n > 1 is applied as a single block update
+    StreamPCAModelsState iterateStreamPCAModel(StreamPCAModelsState state, DMatrixRMaj x) {
+        if (x.numRows > 1) {
+            algorithm.updateBlock(state, x);
+        } else {
+            algorithm.update(state, x);
         }
-        return iteratedModel;
+        return state;
     }
 
     //     Covariance Free algorithm for PCA
     //     Weng et al. (2003). Candid Covariance-free Incremental Principal Component Analysis.
     //     IEEE Trans. Pattern Analysis and Machine Intelligence.
 
-    private StreamPCAModelsState CovarianceFreeIncrementalPCA(StreamPCAModelsState state, SimpleMatrix x){
+    static StreamPCAModelsState CovarianceFreeIncrementalPCA(StreamPCAModelsState state, DMatrixRMaj x){
 
         //        The ’amnesic’ parameter l determines the weight of past observations in the PCA update. If l=0, all
         //        observations have equal weight, which is appropriate for stationary processes. Otherwise, typical
@@ -155,65 +699,82 @@ public class StreamPCAModels implements Serializable{
         //        norm of x becomes less than tol, the algorithm stops to prevent numerical overflow.
 
         // recover state
-        SimpleMatrix lambda = state.getLambda();
-        SimpleMatrix Q = state.getQ();
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj xbar = state.getXbar().getDDRM();
         int n = state.getN();
-        SimpleMatrix xbar = state.getXbar();
 
         // update the average
-        state.setXbar(this.updateIncrementalDataMean(xbar, x, n));
-        xbar = state.getXbar();
-
-        // for the update remove the average
-        x = x.minus(xbar).transpose();
+        updateIncrementalDataMean(xbar, x, n);
 
         // init
-        int q = lambda.numRows();
-        double l = 3;
+        int q = lambda.numRows;
+        double l = amnesic(state);
         double tol = 1e-8;
-        int i, d = x.getNumElements(), k = lambda.getNumElements();
+        int i, r, d = x.getNumElements(), k = lambda.getNumElements();
         if (q != k) {
             Q.reshape(d,q);
             lambda.reshape(q, 1);
         }
-        SimpleMatrix v;
+        state.ensureWorkspace(d, q);
+
+        // for the update remove the average
+        DMatrixRMaj xc = removeDataMean(state.getWorkX(), x, xbar);
+        DMatrixRMaj v = state.getWorkV();
+        DMatrixRMaj y = state.getWorkY();
+        double[] qd = Q.data, xd = xc.data, vd = v.data, ld = lambda.data, yd = y.data;
+        int qc = Q.numCols;
         double f = (1.0 + l)/(1.0 + n);
-        double nrm;
+        double nrm, dot, scale;
+        for (i = 0; i < q; i++) {
+            yd[i] = 0.0;
+        }
 
         for (i=0; i<q; i++) {
 
-            nrm = x.normF();
+            nrm = NormOps_DDRM.normF(xc);
             if (nrm < tol) {
-                SimpleMatrix lambdaUpdate = lambda.extractMatrix(q - i, lambda.numRows(), 0, 1);
-                lambda.setColumn(0, q - i, (lambdaUpdate.scale((1.0 - f))).getDDRM().data);
+                for (r = q - i; r < q; r++) {
+                    ld[r] = (1.0 - f) * ld[r];
+                }
                 break;
             }
 
             if (i == n) {
-                lambda.set(i, 0, nrm);
-                double[] xNormedValues = (x.scale(1.0 / nrm)).getDDRM().data;
-                Q.setColumn(i, 0, xNormedValues);
+                ld[i] = nrm;
+                scale = 1.0 / nrm;
+                for (r = 0; r < d; r++) {
+                    qd[r * qc + i] = scale * xd[r];
+                }
                 break;
             }
 
-            v = Q.extractVector(false, i).scale(((1.0 - f) * lambda.get(i,0)))
-                    .plus(x.scale(f * (Q.extractVector(false, i).dot(x))));
+            // v = (1 - f) * lambda_i * q_i + f * (q_i' x) * x
+            scale = (1.0 - f) * ld[i];
+            dot = f * columnDot(Q, i, xd);
+            for (r = 0; r < d; r++) {
+                vd[r] = scale * qd[r * qc + i] + dot * xd[r];
+            }
 
-            nrm = v.normF();
+            nrm = NormOps_DDRM.normF(v);
             if (nrm < tol) {
-                lambda.set(i, 0, 0.0);
+                ld[i] = 0.0;
                 break;
             }
-            lambda.set(i, 0, nrm);
-            double[] vNormedValues = (v.scale(1.0 / nrm)).getDDRM().data;
-            Q.setColumn(i, 0, vNormedValues);
-            x = x.minus(Q.extractVector(false, i)
-                    .scale(Q.extractVector(false, i)
-                            .dot(x)));
+            ld[i] = nrm;
+            scale = 1.0 / nrm;
+            for (r = 0; r < d; r++) {
+                qd[r * qc + i] = scale * vd[r];
+            }
+
+            // deflate x along the updated component
+            dot = columnDot(Q, i, xd);
+            yd[i] = dot;
+            for (r = 0; r < d; r++) {
+                xd[r] = xd[r] - dot * qd[r * qc + i];
+            }
         }
-        // populate new state
-        state.setLambda(lambda);
-        state.setQ(Q);
+
         return state;
     }
 
@@ -221,7 +782,7 @@ public class StreamPCAModels implements Serializable{
     //     Sanger (1989). Optimal unsupervised learning in a single-layer linear feedforward neural network.
     //     Neural Networks Journal
 
-    private StreamPCAModelsState GeneralizedHebbianPCA(StreamPCAModelsState state, SimpleMatrix x){
+    static StreamPCAModelsState GeneralizedHebbianPCA(StreamPCAModelsState state, DMatrixRMaj x){
 
         //        The vector gamma determines the weight placed on the new data in updating each eigenvector (the
         //        first coefficient of gamma corresponds to the first eigenvector, etc). It can be specified as a single
@@ -230,63 +791,41 @@ public class StreamPCAModels implements Serializable{
         //        sample size and c a suitable positive constant.
 
         // recover state
-        SimpleMatrix lambda = state.getLambda();
-
-        // force copy of all internal data from state!
-        SimpleMatrix Q = state.getQ().createLike();
-        Q.getDDRM().data = state.getQ().getDDRM().data;
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj xbar = state.getXbar().getDDRM();
 
         int ind = state.getN();
-        SimpleMatrix gamma = new SimpleMatrix(Q.numCols(), 1);
-        for (int id = 0; id < Q.numCols(); id++) {
-            gamma.set(id, 1.0);
-        }
-        gamma = gamma.scale(1.0 / (ind * ind));
-        SimpleMatrix xbar = state.getXbar();
 
-        // update the average
-        state.setXbar(this.updateIncrementalDataMean(xbar, x, ind));
-        xbar = state.getXbar();
+        // update the average, remove it for the update and project x on the columns of Q (the predictor)
+        int m = Q.numRows, n = Q.numCols;
+        DMatrixRMaj xc = centerAndProject(state, Q, x, xbar, ind);
+        DMatrixRMaj y = state.getWorkY();
+
+        // gains of the components, see the gain schedule of the state
+        double[] gamma = state.computeGains(xc.data, m, y.data, 1, n);
+
+        // update Q in place, column i only depends on the columns 0..i of the previous Q
+        double[] qd = Q.data, xd = xc.data, yd = y.data, bd = state.getWorkB().data;
+        double gamy, yi;
+        int r, idx;
+        for (int i=0; i<n; i++) {
+            yi = yd[i];
+            gamy = gamma[i] * yi; // Schur product
+            for (r = 0, idx = i; r < m; r++, idx += n) {
+                bd[r] = (i == 0) ? yi * qd[idx] : bd[r] + yi * qd[idx];
+                qd[idx] = (qd[idx] - gamy * bd[r]) + xd[r] * gamy;
+            }
+        }
+        updateEigenvalues(lambda, y, gamma);
 
-        // for the update remove the average
-        x = x.minus(xbar).transpose();
-
-        // update the predictor
-        SimpleMatrix y = Q.mult(x);
-
-        // prepare new state
-        int m = Q.numRows(), n = Q.numCols();
-        SimpleMatrix gamy = gamma.elementMult(y); // Schur product
-        SimpleMatrix b = Q.extractVector(false, 0).scale(y.get(0));
-        SimpleMatrix A = new SimpleMatrix(m,n);
-        A.setColumn(0, 0,
-                (Q.extractVector(false, 0)
-                        .minus(b.scale(gamy.get(0))))
-                        .getDDRM()
-                        .data);
-        for (int i=1; i<n; i++) {
-            b = b.plus(Q.extractVector(false, i).scale(y.get(i)));
-            A.setColumn(i, 0,
-                    (Q.extractVector(false, i)
-                            .minus(b.scale(gamy.get(i))))
-                            .getDDRM()
-                            .data);
-        }
-        A = A.plus(x.mult(gamy.transpose()));
-        SimpleMatrix decay = ((gamma.minus(1.0)).scale(-1.0)).elementMult(lambda);
-        SimpleMatrix increment = gamma.elementMult(y).elementMult(y);
-        lambda = increment.plus(decay);
-
-        // wrap return values
-        state.setLambda(lambda);
-        state.setQ(A);
         return state;
     }
 
     //     Stochastic Gradient Ascent PCA - Exact, QR decomposition based version
     //     Oja (1992). Principal components, Minor components, and linear neural networks. Neural Networks.
 
-    private StreamPCAModelsState StochasticGradientAscentExactPCA(StreamPCAModelsState state, SimpleMatrix x){
+    static StreamPCAModelsState StochasticGradientAscentExactPCA(StreamPCAModelsState state, DMatrixRMaj x){
 
         //        The gain vector gamma determines the weight placed on the new data in updating each principal
         //        component. The first coefficient of gamma corresponds to the first principal component, etc.. It can
@@ -297,120 +836,585 @@ public class StreamPCAModels implements Serializable{
         //        The latter is less accurate but faster.
 
         // recover state
-        SimpleMatrix lambda = state.getLambda();
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj xbar = state.getXbar().getDDRM();
+
+        int ind = state.getN();
+
+        // update the average, remove it for the update and project x on the columns of Q (the predictor)
+        int m = Q.numRows, n = Q.numCols;
+        DMatrixRMaj xc = centerAndProject(state, Q, x, xbar, ind);
+        DMatrixRMaj y = state.getWorkY();
+
+        // gains of the components, see the gain schedule of the state
+        double[] gamma = state.computeGains(xc.data, m, y.data, 1, n);
+        updateEigenvalues(lambda, y, gamma);
+
+        // Q + x * y' * diag(gamma), accumulated in place with the gains folded into y
+        for (int i = 0; i < n; i++) {
+            gamma[i] *= y.data[i];
+        }
+        KERNEL.rankOne(Q.data, m, n, 1.0, xc.data, gamma);
+
+        // re-orthonormalise, the decomposition keeps its own copy of the input so Q can take the result
+        QRDecomposition<DMatrixRMaj> qrDecomp = state.getWorkQR();
+        qrDecomp.decompose(Q);
+        qrDecomp.getQ(Q, true);
 
-        // force copy of all internal data from state!
-        SimpleMatrix Q = state.getQ().createLike();
-        Q.getDDRM().data = state.getQ().getDDRM().data;
+        return state;
+    }
+
+
+    // Stochastic Gradient Ascent PCA - Fast Neural Network version
+    // Oja (1992). Principal components, Minor components, and linear neural networks. Neural Networks.
+
+    static StreamPCAModelsState StochasticGradientAscentNeuralNetPCA(StreamPCAModelsState state, DMatrixRMaj x){
+
+        // recover state
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj xbar = state.getXbar().getDDRM();
 
         int ind = state.getN();
-        SimpleMatrix gamma = new SimpleMatrix(Q.numCols(), 1);
-        for (int id = 0; id < Q.numCols(); id++) {
-            gamma.set(id, 1.0);
+
+        // update the average, remove it for the update and project x on the columns of Q (the predictor)
+        int m = Q.numRows, n = Q.numCols;
+        DMatrixRMaj xc = centerAndProject(state, Q, x, xbar, ind);
+        DMatrixRMaj y = state.getWorkY();
+
+        // gains of the components, see the gain schedule of the state
+        double[] gamma = state.computeGains(xc.data, m, y.data, 1, n);
+
+        // update Q in place, p keeps q_(i-1) * y_(i-1) of the previous Q once its column is overwritten
+        double[] qd = Q.data, xd = xc.data, yd = y.data, bd = state.getWorkB().data, pd = state.getWorkP().data;
+        double gamy, yi, cur;
+        int r, idx;
+        for (int i=0; i<n; i++) {
+            yi = yd[i];
+            gamy = gamma[i] * yi; // Schur product
+            for (r = 0, idx = i; r < m; r++, idx += n) {
+                cur = yi * qd[idx];
+                bd[r] = (i == 0) ? cur : bd[r] + (pd[r] + cur);
+                pd[r] = cur;
+                qd[idx] = (qd[idx] - gamy * bd[r]) + xd[r] * gamy;
+            }
         }
-        gamma = gamma.scale(1.0 / (ind * ind));
-        SimpleMatrix xbar = state.getXbar();
+        updateEigenvalues(lambda, y, gamma);
 
-        // update the average
-        // update the average
-        state.setXbar(this.updateIncrementalDataMean(xbar, x, ind));
-        xbar = state.getXbar();
+        return state;
+    }
 
-        // for the update remove the average
-        x = x.minus(xbar).transpose();
+    //     Incremental SVD with rank truncation
+    //     Brand (2002). Incremental singular value decomposition of uncertain data with missing values. ECCV.
+    //     Brand (2006). Fast low-rank modifications of the thin singular value decomposition. Linear Algebra
+    //     and its Applications.
+
+    static StreamPCAModelsState IncrementalSVDPCA(StreamPCAModelsState state, DMatrixRMaj X){
+
+        //        The covariance is kept as the thin factorisation U S with U = Q and S = diag(sqrt(lambda)).
+        //        A block of b centered samples X extends the factorisation by the columns sqrt(f/b) x_j, with
+        //        the past weighted by 1 - f as in the other algorithms. Each sample splits into its part in the
+        //        span of the basis and an orthonormal residual direction j, which extends the basis to [Q J]:
+        //            [U S | sqrt(f/b) X'] = [Q J] K,   K = | sqrt(1 - f) S   sqrt(f/b) Q'X'  |
+        //                                                  |       0         sqrt(f/b) R     |
+        //        with K of size (q + b) x (q + b). Its SVD K = U_K S_K V_K' gives the new eigenvectors
+        //        Q = [Q J] U_K and eigenvalues S_K^2, truncated back to the q largest. The cost is O(d (q + b)^2)
+        //        plus the SVD of K, no decomposition of a d-dimensional matrix is needed.
 
-        // update the predictor
-        SimpleMatrix y = Q.mult(x);
+        // recover state
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj xbar = state.getXbar().getDDRM();
+        int n = state.getN();
 
-        SimpleMatrix W;
-        SimpleMatrix Qupd = Q;
-        SimpleMatrix evidence = (x.mult(y.transpose()));
-        SimpleMatrix gammaDiag = gamma.diag();
-        SimpleMatrix increment = evidence.mult(gammaDiag);
-        Qupd = Qupd.plus(increment);
+        int q = Q.numCols, b = X.numRows, d = X.numCols, k = q + b;
+        state.ensureSvdWorkspace(b, d, q);
 
-        QRDecomposition<DMatrixRMaj> qrDecomp = DecompositionFactory_DDRM.qr(Qupd.numRows(), Qupd.numCols());
-        qrDecomp.decompose(Qupd.getMatrix());
-        W = SimpleMatrix.wrap(qrDecomp.getQ(null, true));
+        // update the average and remove it from the block
+        DMatrixRMaj Xc = removeDataMeanBlock(state.getWorkXB(), X, xbar, n);
 
-        SimpleMatrix decay = ((gamma.minus(1.0)).scale(-1.0)).elementMult(lambda);
-        SimpleMatrix incrementLambda = gamma.elementMult(y).elementMult(y);
-        lambda = incrementLambda.plus(decay);
+        double f = 1.0 - Math.pow(1.0 - 1.0/(1.0 + n), b);
+        double tol = 1e-10;
+        DMatrixRMaj B = state.getWorkBasis();
+        DMatrixRMaj K = state.getWorkK();
+        double[] qd = Q.data, xd = Xc.data, ld = lambda.data, bd = B.data, kd = K.data, vd = state.getWorkV().data;
 
-        // wrap return values
-        state.setLambda(lambda);
-        state.setQ(W);
+        // [Q J] and K, the residual directions by Gram-Schmidt against the basis built so far, run twice
+        // to keep the basis orthonormal to working precision
+        K.zero();
+        for (int r = 0; r < d; r++) {
+            System.arraycopy(qd, r * q, bd, r * k, q);
+        }
+        for (int c = 0; c < q; c++) {
+            kd[c * k + c] = Math.sqrt((1.0 - f) * Math.max(ld[c], 0.0));
+        }
+        double scale = Math.sqrt(f / b);
+        for (int j = 0; j < b; j++) {
+            int col = q + j;
+            System.arraycopy(xd, j * d, vd, 0, d);
+            double nrm0 = 0.0;
+            for (int r = 0; r < d; r++) {
+                nrm0 += vd[r] * vd[r];
+            }
+            for (int pass = 0; pass < 2; pass++) {
+                for (int c = 0; c < col; c++) {
+                    double dot = columnDot(B, c, vd);
+                    for (int r = 0, idx = c; r < d; r++, idx += k) {
+                        vd[r] -= dot * bd[idx];
+                    }
+                    kd[c * k + col] += scale * dot;
+                }
+            }
+            double rho = 0.0;
+            for (int r = 0; r < d; r++) {
+                rho += vd[r] * vd[r];
+            }
+            rho = Math.sqrt(rho);
+            double inv = rho > tol * Math.sqrt(nrm0) ? 1.0 / rho : 0.0;
+            for (int r = 0, idx = col; r < d; r++, idx += k) {
+                bd[idx] = inv * vd[r];
+            }
+            kd[col * k + col] = inv > 0.0 ? scale * rho : 0.0;
+        }
+
+        // SVD of the small core matrix, largest singular values first
+        SingularValueDecomposition_F64<DMatrixRMaj> svd = state.getWorkSVD();
+        if (!svd.decompose(K)) {
+            return state;
+        }
+        DMatrixRMaj UK = svd.getU(state.getWorkUK(), false);
+        double[] sv = svd.getSingularValues();
+        SingularOps_DDRM.descendingOrder(UK, false, sv, k, null, false);
+
+        // Q = [Q J] U_K truncated to q columns, the column signs kept from the previous Q
+        double[] ud = UK.data;
+        for (int c = 0; c < q; c++) {
+            double sign = ud[c * k + c] < 0.0 ? -1.0 : 1.0;
+            for (int r = 0; r < d; r++) {
+                double total = 0.0;
+                for (int i = 0; i < k; i++) {
+                    total += bd[r * k + i] * ud[i * k + c];
+                }
+                qd[r * q + c] = sign * total;
+            }
+            ld[c] = sv[c] * sv[c];
+        }
         return state;
     }
 
+    //     Downdate of the incremental SVD, the sample x leaves a model of n samples. The mean and the
+    //     covariance of the remaining n - 1 samples are
+    //         m' = m - (x - m) / (n - 1)
+    //         C' = n / (n - 1) C - n / (n - 1)^2 (x - m)(x - m)'
+    //     With x - m = Q p + rho j split as in the update, C' = [Q j] M [Q j]' with the symmetric core
+    //         M = n / (n - 1) | S^2  0 | - n / (n - 1)^2 | p   | | p   |'
+    //                         |  0   0 |                 | rho | | rho |
+    //     of size q + 1. Its eigen decomposition M = V D V' gives Q = [Q j] V and lambda = D truncated to
+    //     the q largest, clipped at zero: the truncated model may hold less of x than the sample removed.
+    //     Brand (2006), section 4 (downdating), on the covariance rather than the data matrix.
 
-    // Stochastic Gradient Ascent PCA - Fast Neural Network version
-    // Oja (1992). Principal components, Minor components, and linear neural networks. Neural Networks.
+    static StreamPCAModelsState IncrementalSVDDowndate(StreamPCAModelsState state, DMatrixRMaj x){
+
+        // recover state
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj xbar = state.getXbar().getDDRM();
+        int n = state.getN();
+        if (n < 2) {
+            return state;
+        }
+
+        int q = Q.numCols, d = x.numCols, k = q + 1;
+        state.ensureDowndateWorkspace(d, q);
+
+        double[] qd = Q.data, ld = lambda.data, md = xbar.data, xd = x.data, vd = state.getWorkV().data;
+        DMatrixRMaj B = state.getWorkBasis();
+        DMatrixRMaj M = state.getWorkK();
+        double[] bd = B.data, kd = M.data;
+        double tol = 1e-10;
+
+        // remove the sample from the mean, v = x - m
+        double nrm0 = 0.0;
+        for (int r = 0; r < d; r++) {
+            vd[r] = xd[r] - md[r];
+            md[r] -= vd[r] / (n - 1);
+            nrm0 += vd[r] * vd[r];
+        }
+
+        // [Q j] and z = [p; rho] in the last column of M, Gram-Schmidt run twice as in the update
+        M.zero();
+        for (int r = 0; r < d; r++) {
+            System.arraycopy(qd, r * q, bd, r * k, q);
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (int c = 0; c < q; c++) {
+                double dot = columnDot(B, c, vd);
+                for (int r = 0, idx = c; r < d; r++, idx += k) {
+                    vd[r] -= dot * bd[idx];
+                }
+                kd[c * k + q] += dot;
+            }
+        }
+        double rho = 0.0;
+        for (int r = 0; r < d; r++) {
+            rho += vd[r] * vd[r];
+        }
+        rho = Math.sqrt(rho);
+        double inv = rho > tol * Math.sqrt(nrm0) ? 1.0 / rho : 0.0;
+        for (int r = 0, idx = q; r < d; r++, idx += k) {
+            bd[idx] = inv * vd[r];
+        }
+        double zq = inv > 0.0 ? rho : 0.0;
+
+        // M = a diag(lambda, 0) - c z z', the last column last as it holds z
+        double a = (double) n / (n - 1), c0 = n / ((double) (n - 1) * (n - 1));
+        for (int i = 0; i < k; i++) {
+            double zi = i < q ? kd[i * k + q] : zq;
+            for (int j = 0; j < q; j++) {
+                kd[i * k + j] = (i == j ? a * Math.max(ld[i], 0.0) : 0.0) - c0 * zi * kd[j * k + q];
+            }
+        }
+        for (int i = 0; i < q; i++) {
+            kd[i * k + q] = -c0 * kd[i * k + q] * zq;
+        }
+        kd[q * k + q] = -c0 * zq * zq;
+
+        EigenDecomposition_F64<DMatrixRMaj> eig = state.getWorkEig();
+        if (!eig.decompose(M)) {
+            return state;
+        }
+        double[] ev = state.getWorkEigVals();
+        for (int i = 0; i < k; i++) {
+            ev[i] = eig.getEigenvalue(i).getReal();
+        }
+
+        // the q largest eigenvectors as the columns of U, largest first, then Q = [Q j] U with the column
+        // signs kept from the previous Q
+        DMatrixRMaj U = state.getWorkUK();
+        double[] ud = U.data;
+        for (int c = 0; c < q; c++) {
+            int best = 0;
+            for (int i = 1; i < k; i++) {
+                if (ev[i] > ev[best]) {
+                    best = i;
+                }
+            }
+            double[] vec = eig.getEigenVector(best).data;
+            for (int i = 0; i < k; i++) {
+                ud[i * k + c] = vec[i];
+            }
+            ld[c] = Math.max(ev[best], 0.0);
+            ev[best] = Double.NEGATIVE_INFINITY;
+        }
+        for (int c = 0; c < q; c++) {
+            double sign = ud[c * k + c] < 0.0 ? -1.0 : 1.0;
+            for (int r = 0; r < d; r++) {
+                double total = 0.0;
+                for (int i = 0; i < k; i++) {
+                    total += bd[r * k + i] * ud[i * k + c];
+                }
+                qd[r * q + c] = sign * total;
+            }
+        }
+        return state;
+    }
 
-    private StreamPCAModelsState StochasticGradientAscentNeuralNetPCA(StreamPCAModelsState state, SimpleMatrix x){
+    //     Block version of the Covariance Free algorithm: the rank-1 term f * (q_i' x) * x is replaced
+    //     by the average X' * (X * q_i) / b over the b samples of the block, weighted by 1 - (1 - f)^b
+    //     so the past keeps the weight it would have after b single updates, and the whole block is
+    //     deflated along each updated component.
+
+    static StreamPCAModelsState CovarianceFreeIncrementalPCABlock(StreamPCAModelsState state, DMatrixRMaj X){
 
         // recover state
-        SimpleMatrix lambda = state.getLambda();
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj xbar = state.getXbar().getDDRM();
+        int n = state.getN();
 
-        // force copy of all internal data from state!
-        SimpleMatrix Q = state.getQ().createLike();
-        Q.getDDRM().data = state.getQ().getDDRM().data;
+        int q = lambda.numRows;
+        int i, r, b = X.numRows, d = X.numCols, k = lambda.getNumElements();
+        if (q != k) {
+            Q.reshape(d,q);
+            lambda.reshape(q, 1);
+        }
+        state.ensureBatchWorkspace(b, d, q);
+
+        // the first components are initialised from single samples, keep the per-sample path there
+        if (n <= q) {
+            DMatrixRMaj row = state.getWorkRow();
+            for (int j = 0; j < b; j++) {
+                CommonOps_DDRM.extractRow(X, j, row);
+                CovarianceFreeIncrementalPCA(state, row);
+            }
+            return state;
+        }
+
+        // update the average and remove it from the block
+        DMatrixRMaj Xc = removeDataMeanBlock(state.getWorkXB(), X, xbar, n);
+
+        double l = amnesic(state);
+        double tol = 1e-8;
+        DMatrixRMaj v = state.getWorkV();
+        // the block projections X * q_i only need b entries of the b x q predictor buffer
+        double[] qd = Q.data, xd = Xc.data, zd = state.getWorkYB().data, vd = v.data, ld = lambda.data;
+        int qc = Q.numCols;
+        double f = 1.0 - Math.pow(1.0 - (1.0 + l)/(1.0 + n), b);
+        double nrm, scale, avg = f / b;
+
+        for (i=0; i<q; i++) {
+
+            nrm = NormOps_DDRM.normF(Xc);
+            if (nrm < tol) {
+                for (r = q - i; r < q; r++) {
+                    ld[r] = (1.0 - f) * ld[r];
+                }
+                break;
+            }
+
+            // v = (1 - f) * lambda_i * q_i + f/b * X' * (X * q_i)
+            blockColumnProjection(Xc, Q, i, zd);
+            scale = (1.0 - f) * ld[i];
+            for (r = 0; r < d; r++) {
+                vd[r] = scale * qd[r * qc + i];
+            }
+            for (int j = 0; j < b; j++) {
+                double zj = avg * zd[j];
+                for (r = 0; r < d; r++) {
+                    vd[r] += zj * xd[j * d + r];
+                }
+            }
+
+            nrm = NormOps_DDRM.normF(v);
+            if (nrm < tol) {
+                ld[i] = 0.0;
+                break;
+            }
+            ld[i] = nrm;
+            scale = 1.0 / nrm;
+            for (r = 0; r < d; r++) {
+                qd[r * qc + i] = scale * vd[r];
+            }
+
+            // deflate the block along the updated component
+            blockColumnProjection(Xc, Q, i, zd);
+            for (int j = 0; j < b; j++) {
+                for (r = 0; r < d; r++) {
+                    xd[j * d + r] -= zd[j] * qd[r * qc + i];
+                }
+            }
+        }
+        return state;
+    }
+
+    //     Block version of the Hebbian family (GHA, SGA neural network, SGA exact). With Y = X * Q the
+    //     per-sample rules sum over the block to a single matrix-matrix step
+    //         Q = Q + gamma * (X' * Y - Q * T(Y' * Y))
+    //     where T keeps the upper triangle of Y' * Y (GHA) or the diagonal plus twice the strict upper
+    //     triangle (SGA neural network). SGA exact drops the T term and re-orthonormalises Q with one QR
+    //     decomposition per block.
+
+    static StreamPCAModelsState HebbianPCABlock(StreamPCAModelsState state, DMatrixRMaj X, boolean sga, boolean exact){
+
+        // recover state
+        DMatrixRMaj lambda = state.getLambda().getDDRM();
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj xbar = state.getXbar().getDDRM();
 
         int ind = state.getN();
-        SimpleMatrix gamma = new SimpleMatrix(Q.numCols(), 1);
-        for (int id = 0; id < Q.numCols(); id++) {
-            gamma.set(id, 1.0);
+
+        int n = Q.numCols, b = X.numRows;
+        state.ensureBatchWorkspace(b, X.numCols, n);
+
+        // update the average and remove it from the block
+        DMatrixRMaj Xc = removeDataMeanBlock(state.getWorkXB(), X, xbar, ind);
+
+        // update the predictors of the whole block
+        DMatrixRMaj Y = state.getWorkYB();
+        CommonOps_DDRM.mult(Xc, Q, Y);
+
+        // gains of the components for the whole block, see the gain schedule of the state
+        double[] gamma = state.computeGains(Xc.data, X.numCols, Y.data, b, n);
+
+        // evidence X' * Y
+        DMatrixRMaj G = state.getWorkG();
+        CommonOps_DDRM.multTransA(Xc, Y, G);
+
+        if (!exact) {
+            // Y' * Y, reduced to the triangular coupling of the update rule
+            DMatrixRMaj M = state.getWorkM();
+            CommonOps_DDRM.multTransA(Y, Y, M);
+            double[] md = M.data;
+            for (int r = 0; r < n; r++) {
+                for (int c = 0; c < n; c++) {
+                    if (r > c) {
+                        md[r * n + c] = 0.0;
+                    } else if (sga && r < c) {
+                        md[r * n + c] = 2.0 * md[r * n + c];
+                    }
+                }
+            }
+            DMatrixRMaj H = state.getWorkH();
+            CommonOps_DDRM.mult(Q, M, H);
+            CommonOps_DDRM.addEquals(G, -1.0, H);
+        }
+        // Q + G * diag(gamma)
+        double[] qd = Q.data, gd = G.data;
+        for (int r = 0, idx = 0; r < Q.numRows; r++) {
+            for (int c = 0; c < n; c++, idx++) {
+                qd[idx] += gamma[c] * gd[idx];
+            }
         }
-        gamma = gamma.scale(1.0 / (ind * ind));
-        SimpleMatrix xbar = state.getXbar();
 
-        // update the average
-        state.setXbar(this.updateIncrementalDataMean(xbar, x, ind));
-        xbar = state.getXbar();
+        if (exact) {
+            // re-orthonormalise, the decomposition keeps its own copy of the input so Q can take the result
+            QRDecomposition<DMatrixRMaj> qrDecomp = state.getWorkQR();
+            qrDecomp.decompose(Q);
+            qrDecomp.getQ(Q, true);
+        }
+
+        // eigenvalues follow the per-sample recursion over the projections of the block
+        double[] ld = lambda.data, yd = Y.data;
+        for (int j = 0; j < b; j++) {
+            for (int i = 0; i < lambda.getNumElements(); i++) {
+                double yi = yd[j * n + i];
+                ld[i] = (gamma[i] * yi) * yi + (1.0 - gamma[i]) * ld[i];
+            }
+        }
 
-        // for the update remove the average
-        x = x.minus(xbar).transpose();
-
-        // update the predictor
-        SimpleMatrix y = Q.mult(x);
-
-        int m = Q.numRows(), n = Q.numCols();
-        SimpleMatrix gamy = gamma.elementMult(y); // Schur product
-        SimpleMatrix b = Q.extractVector(false, 0).scale(y.get(0));
-        SimpleMatrix A = new SimpleMatrix(m,n);
-        A.setColumn(0, 0,
-                (Q.extractVector(false, 0)
-                        .minus(b.scale(gamy.get(0))))
-                        .getDDRM()
-                        .data);
-        for (int i=1; i<n; i++) {
-
-            b = b.plus((Q.extractVector(false, i - 1).scale(y.get(i - 1)))
-                    .plus(Q.extractVector(false, i).scale(y.get(i))));
-
-            A.setColumn(i, 0,
-                    (Q.extractVector(false, i)
-                            .minus(b.scale(gamy.get(i))))
-                            .getDDRM()
-                            .data);
-        }
-        A = A.plus(x.mult(gamy.transpose()));
-        SimpleMatrix decay = ((gamma.minus(1.0)).scale(-1.0)).elementMult(lambda);
-        SimpleMatrix increment = gamma.elementMult(y).elementMult(y);
-        lambda = increment.plus(decay);
-
-        // wrap return values
-        state.setLambda(lambda);
-        state.setQ(A);
         return state;
     }
 
-    // Recursive update of the sample mean vector used in all PCA algorithms.
-    private SimpleMatrix updateIncrementalDataMean(SimpleMatrix xbar, SimpleMatrix x, int n) {
+    // Squared prediction error |x - Q y|^2 of a centered sample from its projections y, kept with the
+    // projections for the scoring of the sample. Taken directly, |x|^2 - |y|^2 is only exact for an
+    // orthonormal Q, which the gradient algorithms only approach.
+    private static void recordResidual(StreamPCAModelsState state, DMatrixRMaj Q, DMatrixRMaj xc, DMatrixRMaj y) {
+        state.setLastSpe(KERNEL.residual(Q.data, Q.numRows, Q.numCols, xc.data, y.data));
+    }
+
+    // projections of a sample on the current model (Q and xbar) and its squared prediction error, for
+    // the scoring of a sample before the model is updated with it. A per-sample update of the gradient
+    // algorithms starts from these projections instead of projecting the sample again
+    void projectSample(StreamPCAModelsState state, double[] sample) {
+        state.setWorkspace(workspace());
+        DMatrixRMaj Q = state.getQ().getDDRM();
+        DMatrixRMaj xbar = state.getXbar().getDDRM();
+        int d = sample.length;
+        state.ensureWorkspace(d, Q.numCols);
+        DMatrixRMaj xc = state.getWorkX();
+        double[] xd = xc.data, md = xbar.data;
+        for (int r = 0; r < d; r++) {
+            xd[r] = sample[r] - md[r];
+        }
+        DMatrixRMaj y = state.getWorkY();
+        KERNEL.multTransA(Q.data, Q.numRows, Q.numCols, xc.data, y.data);
+        recordResidual(state, Q, xc, y);
+        state.setProjected();
+    }
+
+    // Recursive update of the mean with x, then x - xbar in workX and its projections y = Q'(x - xbar)
+    // in workY. After the scoring of x on the same Q both are the ones of the previous mean scaled by
+    // 1 - f, as x - ((1 - f) xbar + f x) = (1 - f)(x - xbar), which saves the O(dq) product.
+    private static DMatrixRMaj centerAndProject(StreamPCAModelsState state, DMatrixRMaj Q, DMatrixRMaj x,
+                                                DMatrixRMaj xbar, int n) {
+        boolean projected = state.takeProjection();
+        updateIncrementalDataMean(xbar, x, n);
+        int d = x.getNumElements(), q = Q.numCols;
+        state.ensureWorkspace(d, q);
+        DMatrixRMaj y = state.getWorkY();
+        if (projected) {
+            double g = 1.0 - 1.0 / (n + 1.0);
+            DMatrixRMaj xc = state.getWorkX();
+            double[] xd = xc.data, yd = y.data;
+            for (int r = 0; r < d; r++) {
+                xd[r] *= g;
+            }
+            for (int i = 0; i < q; i++) {
+                yd[i] *= g;
+            }
+            return xc;
+        }
+        DMatrixRMaj xc = removeDataMean(state.getWorkX(), x, xbar);
+        KERNEL.multTransA(Q.data, Q.numRows, Q.numCols, xc.data, y.data);
+        return xc;
+    }
+
+    // Recursive update of the sample mean vector used in all PCA algorithms, in place.
+    private static void updateIncrementalDataMean(DMatrixRMaj xbar, DMatrixRMaj x, int n) {
         //    The forgetting factor f determines the balance between past and present observations in the PCA
         //    update: the closer it is to 1 (resp. to 0), the more weight is placed on current and past observations.
         //    For a given argument n, the default value of f is 1/(n + 1).
         double f = 1.0 / (n + 1.0);
-        return (xbar.scale(1.0 - f)).plus(x.scale(f));
+        CommonOps_DDRM.add(1.0 - f, xbar, f, x, xbar);
+    }
+
+    // Centered sample (x - xbar)' written into the d x 1 work buffer xc.
+    private static DMatrixRMaj removeDataMean(DMatrixRMaj xc, DMatrixRMaj x, DMatrixRMaj xbar) {
+        int d = x.getNumElements();
+        xc.reshape(x.numRows, x.numCols);
+        CommonOps_DDRM.subtract(x, xbar, xc);
+        xc.reshape(d, 1);
+        return xc;
+    }
+
+    // Recursive mean update over the rows of a block, followed by the centered block X - xbar written into Xc.
+    private static DMatrixRMaj removeDataMeanBlock(DMatrixRMaj Xc, DMatrixRMaj X, DMatrixRMaj xbar, int n) {
+        double f = 1.0 / (n + 1.0);
+        double[] xd = X.data, md = xbar.data, cd = Xc.data;
+        int b = X.numRows, d = X.numCols;
+        for (int j = 0; j < b; j++) {
+            for (int r = 0; r < d; r++) {
+                md[r] = (1.0 - f) * md[r] + f * xd[j * d + r];
+            }
+        }
+        for (int j = 0; j < b; j++) {
+            for (int r = 0; r < d; r++) {
+                cd[j * d + r] = xd[j * d + r] - md[r];
+            }
+        }
+        return Xc;
+    }
+
+    // Projections z = X * q_i of all rows of the block on column i of Q.
+    private static void blockColumnProjection(DMatrixRMaj X, DMatrixRMaj Q, int i, double[] z) {
+        double[] xd = X.data;
+        int d = X.numCols;
+        for (int j = 0; j < X.numRows; j++) {
+            double total = 0;
+            for (int r = 0, idx = i; r < d; r++, idx += Q.numCols) {
+                total += Q.data[idx] * xd[j * d + r];
+            }
+            z[j] = total;
+        }
+    }
+
+    // Eigenvalue tracking shared by the gradient algorithms: lambda = gamma .* y.^2 + (1 - gamma) .* lambda.
+    private static void updateEigenvalues(DMatrixRMaj lambda, DMatrixRMaj y, double[] gamma) {
+        double[] ld = lambda.data, yd = y.data;
+        for (int i = 0; i < lambda.getNumElements(); i++) {
+            ld[i] = (gamma[i] * yd[i]) * yd[i] + (1.0 - gamma[i]) * ld[i];
+        }
+    }
+
+    // Dot product of column i of A with column j of B, both row-major with the same number of rows.
+    private static double columnDot(DMatrixRMaj A, int i, DMatrixRMaj B, int j) {
+        double[] ad = A.data, bd = B.data;
+        double total = 0;
+        for (int r = 0; r < A.numRows; r++) {
+            total += ad[r * A.numCols + i] * bd[r * B.numCols + j];
+        }
+        return total;
+    }
+
+    // Dot product of column i of the row-major matrix A with the vector x.
+    private static double columnDot(DMatrixRMaj A, int i, double[] x) {
+        double[] ad = A.data;
+        int nc = A.numCols;
+        double total = 0;
+        for (int r = 0, idx = i; r < A.numRows; r++, idx += nc) {
+            total += ad[idx] * x[r];
+        }
+        return total;
     }
 }
@@ -0,0 +1,128 @@
+package org.omlstreaming.flink;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.dense.row.factory.DecompositionFactory_DDRM;
+import org.ejml.interfaces.decomposition.EigenDecomposition_F64;
+import org.ejml.interfaces.decomposition.QRDecomposition;
+import org.ejml.simple.SimpleMatrix;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Merging of streaming PCA models built on disjoint parts of a stream into one eigenspace
+// (Hall, Marshall, Martin - "Merging and splitting eigenspace models"). Both models are
+// expressed in an orthonormal basis of [Q1 Q2 (xbar1 - xbar2)], the merged covariance
+//     n1/n Q1 L1 Q1' + n2/n Q2 L2 Q2' + n1 n2/n^2 (xbar1 - xbar2)(xbar1 - xbar2)'
+// is projected onto that basis and its small eigenproblem gives the merged eigenspace.
+public final class StreamPCAModelsMerge {
+
+    private StreamPCAModelsMerge() {
+    }
+
+    // merge of two models, the result keeps the number of components and the options of the first model
+    // (type, block size, off-heap, weighting, storage precision, adaptive rank, re-orthonormalisation,
+    // gains); pending block samples and window samples are not carried over. Models of
+    // adaptive rank can differ in their number of components, the merge keeps the larger one
+    public static StreamPCAModelsState merge(StreamPCAModelsState first, StreamPCAModelsState second) {
+
+        if (first.getN() == 0 && second.getN() == 0) {
+            throw new IllegalArgumentException("Cannot merge PCA models that have not seen any sample");
+        }
+        DMatrixRMaj Q1 = first.getQ().getDDRM();
+        DMatrixRMaj Q2 = second.getQ().getDDRM();
+        DMatrixRMaj xbar1 = first.getXbar().getDDRM();
+        DMatrixRMaj xbar2 = second.getXbar().getDDRM();
+        int d = Q1.numRows;
+        int q1 = Q1.numCols;
+        int q2 = Q2.numCols;
+        if (Q2.numRows != d) {
+            throw new IllegalArgumentException("Cannot merge PCA models of dimension " + d + " and " + Q2.numRows);
+        }
+
+        double n1 = first.getN();
+        double n2 = second.getN();
+        double n = n1 + n2;
+
+        // basis of the merged eigenspace
+        int k = q1 + q2 + 1;
+        DMatrixRMaj B = new DMatrixRMaj(d, k);
+        CommonOps_DDRM.insert(Q1, B, 0, 0);
+        CommonOps_DDRM.insert(Q2, B, 0, q1);
+        for (int i = 0; i < d; i++) {
+            B.unsafe_set(i, k - 1, xbar1.data[i] - xbar2.data[i]);
+        }
+        DMatrixRMaj diff = CommonOps_DDRM.extractColumn(B, k - 1, null);
+        QRDecomposition<DMatrixRMaj> qr = DecompositionFactory_DDRM.qr(d, k);
+        qr.decompose(B);
+        DMatrixRMaj Phi = qr.getQ(null, true);
+        int m = Phi.numCols;
+
+        // merged covariance in the basis
+        DMatrixRMaj M = new DMatrixRMaj(m, m);
+        addProjectedCovariance(Phi, Q1, first.getLambda().getDDRM(), n1 / n, M);
+        addProjectedCovariance(Phi, Q2, second.getLambda().getDDRM(), n2 / n, M);
+        DMatrixRMaj a = new DMatrixRMaj(m, 1);
+        CommonOps_DDRM.multTransA(Phi, diff, a);
+        double w = n1 * n2 / (n * n);
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++) {
+                M.data[i * m + j] += w * a.data[i] * a.data[j];
+            }
+        }
+
+        // leading eigenpairs of the small problem, rotated back to the data space
+        EigenDecomposition_F64<DMatrixRMaj> eig = DecompositionFactory_DDRM.eig(m, true, true);
+        if (!eig.decompose(M)) {
+            throw new IllegalStateException("Eigen decomposition of the merged PCA model failed");
+        }
+        Integer[] order = new Integer[m];
+        for (int i = 0; i < m; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble((Integer i) -> eig.getEigenvalue(i).getReal()).reversed());
+
+        int qOut = first.isAdaptiveRank() ? Math.max(q1, q2) : q1;
+        int q = Math.min(qOut, m);
+        DMatrixRMaj R = new DMatrixRMaj(m, q);
+        DMatrixRMaj lambda = new DMatrixRMaj(qOut, 1);
+        for (int c = 0; c < q; c++) {
+            DMatrixRMaj v = eig.getEigenVector(order[c]);
+            for (int i = 0; i < m; i++) {
+                R.unsafe_set(i, c, v.data[i]);
+            }
+            lambda.data[c] = eig.getEigenvalue(order[c]).getReal();
+        }
+        DMatrixRMaj Q = new DMatrixRMaj(d, qOut);
+        DMatrixRMaj PhiR = new DMatrixRMaj(d, q);
+        CommonOps_DDRM.mult(Phi, R, PhiR);
+        CommonOps_DDRM.insert(PhiR, Q, 0, 0);
+
+        DMatrixRMaj xbar = new DMatrixRMaj(xbar1.numRows, xbar1.numCols);
+        CommonOps_DDRM.add(n1 / n, xbar1, n2 / n, xbar2, xbar);
+
+        StreamPCAModelsState merged = StreamPCAModelsState.withoutMatrices(first.getNumPcaComps(), first.getWinSize());
+        first.copyConfigInto(merged);
+        merged.setN((int) Math.min(n, Integer.MAX_VALUE));
+        merged.setXbar(SimpleMatrix.wrap(xbar));
+        merged.setLambda(SimpleMatrix.wrap(lambda));
+        merged.setQ(SimpleMatrix.wrap(Q));
+        return merged;
+    }
+
+    // M += w (Phi' Qm) diag(lambda) (Phi' Qm)'
+    private static void addProjectedCovariance(DMatrixRMaj Phi, DMatrixRMaj Qm, DMatrixRMaj lambda,
+                                               double w, DMatrixRMaj M) {
+        int m = Phi.numCols;
+        int q = Qm.numCols;
+        DMatrixRMaj A = new DMatrixRMaj(m, q);
+        CommonOps_DDRM.multTransA(Phi, Qm, A);
+        DMatrixRMaj AL = A.copy();
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < q; j++) {
+                AL.data[i * q + j] *= w * lambda.data[j];
+            }
+        }
+        CommonOps_DDRM.multAddTransB(AL, A, M);
+    }
+}
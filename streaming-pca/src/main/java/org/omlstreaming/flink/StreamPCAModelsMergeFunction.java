@@ -0,0 +1,61 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.api.common.functions.RichFlatMapFunction;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.util.Collector;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Combines the partial PCA models of all partitions (keys) into one global model. The latest model
+// of every partition is kept and, after mergeEvery new partial models, all of them are merged with
+// StreamPCAModelsMerge and the global model is emitted. Run it with parallelism 1; the partial models
+// are sent again periodically, so they are not checkpointed here.
+public class StreamPCAModelsMergeFunction
+        extends RichFlatMapFunction<Tuple2<String, StreamPCAModelsState>, StreamPCAModelsState>
+        implements ResultTypeQueryable<StreamPCAModelsState> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int mergeEvery;
+
+    private transient Map<String, StreamPCAModelsState> partialModels;
+    private transient long received;
+
+    public StreamPCAModelsMergeFunction(int mergeEveryInit) {
+        if (mergeEveryInit < 1) {
+            throw new IllegalArgumentException("PCA models merge interval must be at least 1, got " + mergeEveryInit);
+        }
+        mergeEvery = mergeEveryInit;
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        partialModels = new HashMap<>();
+        received = 0L;
+    }
+
+    @Override
+    public void flatMap(Tuple2<String, StreamPCAModelsState> partial, Collector<StreamPCAModelsState> out)
+            throws Exception {
+        partialModels.put(partial.f0, partial.f1);
+        received++;
+        if (received % mergeEvery != 0) {
+            return;
+        }
+
+        StreamPCAModelsState global = null;
+        for (StreamPCAModelsState model : partialModels.values()) {
+            global = global == null ? model.copy() : StreamPCAModelsMerge.merge(global, model);
+        }
+        out.collect(global);
+    }
+
+    @Override
+    public TypeInformation<StreamPCAModelsState> getProducedType() {
+        return new StreamPCAModelsStateTypeInfo();
+    }
+}
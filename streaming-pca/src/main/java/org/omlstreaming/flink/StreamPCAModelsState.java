@@ -0,0 +1,1008 @@
+package org.omlstreaming.flink;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.interfaces.decomposition.EigenDecomposition_F64;
+import org.ejml.interfaces.decomposition.QRDecomposition;
+import org.ejml.interfaces.decomposition.SingularValueDecomposition_F64;
+import org.ejml.simple.SimpleMatrix;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+// Complete state of one streaming PCA model: lambda, Q, xbar and n, the configuration of the model
+// (type, weighting, block size, bootstrap, adaptive rank, gains), the samples it still buffers and
+// the statistics of the fault detection. The update rules of StreamPCAAlgorithm implementations work
+// on the public accessors of the model and of the work buffers of the kernel updating it.
+public class StreamPCAModelsState implements Serializable {
+
+    // keeps the adaptive gains finite before a component has seen any variance
+    private static final double GAIN_EPSILON = 1e-12;
+
+    private SimpleMatrix lambda;
+    private SimpleMatrix Q;
+    private SimpleMatrix xbar;
+    private int n;
+    private String pcaModelType;
+    private int numPcaComps;
+    private int winSize;
+    private int blockSize;
+
+    // samples waiting for the next block update
+    private DMatrixRMaj batch;
+    private int batchFill;
+
+    // weighting of the past samples: "cumulative" (all samples, weights 1/n), "exponential" (weights
+    // halved every halfLife samples) or "window" (exact mean and covariance of the last winSize samples)
+    private String weighting = "cumulative";
+    private double halfLife;
+
+    // precision the serializer stores the model with: "float64" (default) or "float32", where all
+    // matrices but the window scatter are written as floats. It is a storage format only, the model is
+    // held and updated in double and loses precision where it is serialized: on every access with
+    // RocksDB, in checkpoints and restores with the heap backends
+    private String storagePrecision = "float64";
+
+    // ring buffer of the window samples (next slot windowHead, windowFill samples held) and, for the
+    // model types that cannot remove samples, the scatter matrix of the window around its mean (xbar)
+    private DMatrixRMaj window;
+    private int windowHead;
+    private int windowFill;
+    private DMatrixRMaj scatter;
+
+    // warm start: the first bootstrapSamples samples are buffered and a batch PCA of them seeds a model
+    // of bootstrapComps components, 0 once the model is seeded or without bootstrap
+    private int bootstrapSamples;
+    private int bootstrapComps;
+    private DMatrixRMaj bootstrap;
+    private int bootstrapFill;
+
+    // adaptive rank: the number of components follows the explained variance, grown while the model
+    // explains less than rankTarget of the total variance and shrunk while it would still explain
+    // rankTarget + rankMargin without its last component, once either holds for rankPatience updates
+    // in a row (rankRun, positive to grow and negative to shrink); rankTarget 0 keeps the rank fixed.
+    // totalVariance is the weighted mean of |x - xbar|^2 over varianceCount samples
+    private double rankTarget;
+    private double rankMargin;
+    private int rankMin;
+    private int rankMax;
+    private int rankPatience;
+    private int rankRun;
+    private double totalVariance;
+    private long varianceCount;
+
+    // re-orthonormalisation of Q: when the estimate of ||Q'Q - I||_F passes orthoTolerance or after
+    // orthoEvery updates since the last one (0 disables either), orthoCount updates so far. The
+    // estimate is the sum of the per-column terms in orthoDrift, refreshed one column per update
+    private double orthoTolerance;
+    private int orthoEvery;
+    private long orthoCount;
+    private transient double[] orthoDrift;
+    private transient int orthoColumn;
+
+    // gains of the gradient algorithms (ghapca, sgaexpca, sgannpca) on the new sample, per component:
+    // gainConstant times gainScale[i] (1 past its end or without one) times the gain schedule,
+    // "inverse-square" 1/n^2 (default), "harmonic" 1/n, "constant" 1, "adagrad" 1/sqrt(sum of the
+    // squared steps so far) or "rmsprop" 1/sqrt(mean of the squared steps decayed by gainDecay per
+    // sample), accumulated in gainAccumulator, capped at 1 where the update would overshoot the sample.
+    // The step of component i is its Hebbian term y_i (x - sum_(j <= i) y_j q_j), with squared norm
+    // y_i^2 (|x|^2 - sum_(j <= i) y_j^2) for an orthonormal Q
+    private String gainSchedule = "inverse-square";
+    private double gainConstant = 1.0;
+    private double gainDecay = 0.99;
+    private double[] gainScale;
+    private double[] gainAccumulator;
+
+    // running mean and variance of the in-control squared prediction errors, and the
+    // number of consecutive out-of-control samples, for the fault detection limits
+    private long speCount;
+    private double speMean;
+    private double speVar;
+    private int alarmRun;
+
+    // squared prediction error of the last sample projected for the scoring, its projections are in workY
+    private transient double lastSpe;
+
+    // work buffers of the in-place update kernels, shared with the other states the same kernel updates
+    private transient StreamPCAWorkspace workspace;
+
+    // off-heap model: between two updates lambda, Q and xbar are parked in one direct buffer (lambda,
+    // then Q, then xbar, row-major, their rows and columns in parkedShape) and the matrix fields are
+    // null. Reading or setting one of them attaches the model again, into the model matrices of the
+    // workspace, which hold the model of one state at a time, or into matrices of its own without one
+    private boolean offHeap;
+    private transient ByteBuffer parked;
+    private transient int[] parkedShape;
+    private transient boolean isParked;
+
+    public void setLambda(SimpleMatrix lambda) {
+        if (isParked) {
+            attach();
+        }
+        this.lambda = lambda;
+    }
+
+    public void setQ(SimpleMatrix q) {
+        if (isParked) {
+            attach();
+        }
+        Q = q;
+    }
+
+    public void setN(int n) {
+        this.n = n;
+    }
+
+    public void setXbar(SimpleMatrix xbar) {
+        if (isParked) {
+            attach();
+        }
+        this.xbar = xbar;
+    }
+
+    public SimpleMatrix getLambda(){
+        if (isParked) {
+            attach();
+        }
+        return lambda;
+    }
+
+    public SimpleMatrix getQ(){
+        if (isParked) {
+            attach();
+        }
+        return Q;
+    }
+
+    public SimpleMatrix getXbar(){
+        if (isParked) {
+            attach();
+        }
+        return xbar;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    void setOffHeap(boolean o) {
+        if (!o && isParked) {
+            attach();
+        }
+        offHeap = o;
+    }
+
+    boolean isParked() {
+        return isParked;
+    }
+
+    // rows and columns of the parked lambda, Q and xbar
+    int[] getParkedShape() {
+        return parkedShape;
+    }
+
+    // view of the parked lambda (0), Q (1) or xbar (2), independent of other views of the buffer
+    DoubleBuffer getParkedValues(int part) {
+        DoubleBuffer values = parked.asDoubleBuffer();
+        int offset = 0;
+        for (int p = 0; p < part; p++) {
+            offset += parkedShape[2 * p] * parkedShape[2 * p + 1];
+        }
+        values.position(offset);
+        values.limit(offset + parkedShape[2 * part] * parkedShape[2 * part + 1]);
+        return values.slice();
+    }
+
+    // move lambda, Q and xbar of an off-heap model into its direct buffer, which is reused while it is
+    // large enough; a no-op for heap models and parked ones
+    public void park() {
+        if (!offHeap || isParked) {
+            return;
+        }
+        int count = lambda.getNumElements() + Q.getNumElements() + xbar.getNumElements();
+        if (parked == null || parked.capacity() < 8 * count) {
+            parked = ByteBuffer.allocateDirect(8 * count).order(ByteOrder.nativeOrder());
+        }
+        if (parkedShape == null) {
+            parkedShape = new int[6];
+        }
+        DoubleBuffer values = parked.asDoubleBuffer();
+        SimpleMatrix[] parts = {lambda, Q, xbar};
+        for (int p = 0; p < parts.length; p++) {
+            DMatrixRMaj m = parts[p].getDDRM();
+            parkedShape[2 * p] = m.numRows;
+            parkedShape[2 * p + 1] = m.numCols;
+            values.put(m.data, 0, m.getNumElements());
+        }
+        lambda = null;
+        Q = null;
+        xbar = null;
+        isParked = true;
+        if (workspace != null && workspace.attached == this) {
+            workspace.attached = null;
+        }
+    }
+
+    // bring the parked matrices back on the heap, parking the state attached to the workspace first
+    private void attach() {
+        SimpleMatrix[] parts = new SimpleMatrix[3];
+        if (workspace != null) {
+            if (workspace.attached != null && workspace.attached != this) {
+                workspace.attached.park();
+            }
+            if (workspace.attachedLambda == null) {
+                workspace.attachedLambda = new SimpleMatrix(1, 1);
+                workspace.attachedQ = new SimpleMatrix(1, 1);
+                workspace.attachedXbar = new SimpleMatrix(1, 1);
+            }
+            parts[0] = workspace.attachedLambda;
+            parts[1] = workspace.attachedQ;
+            parts[2] = workspace.attachedXbar;
+            workspace.attached = this;
+        }
+        unpark(parts);
+        lambda = parts[0];
+        Q = parts[1];
+        xbar = parts[2];
+        isParked = false;
+    }
+
+    // copy the parked matrices into the given ones, reshaped, or into new ones where null
+    private void unpark(SimpleMatrix[] parts) {
+        DoubleBuffer values = parked.asDoubleBuffer();
+        for (int p = 0; p < parts.length; p++) {
+            int rows = parkedShape[2 * p], cols = parkedShape[2 * p + 1];
+            if (parts[p] == null) {
+                parts[p] = new SimpleMatrix(rows, cols);
+            } else {
+                parts[p].getDDRM().reshape(rows, cols);
+            }
+            values.get(parts[p].getDDRM().data, 0, rows * cols);
+        }
+    }
+
+    // java serialization writes a parked model from heap copies of its matrices and leaves it parked
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        if (!isParked) {
+            out.defaultWriteObject();
+            return;
+        }
+        SimpleMatrix[] parts = new SimpleMatrix[3];
+        unpark(parts);
+        lambda = parts[0];
+        Q = parts[1];
+        xbar = parts[2];
+        try {
+            out.defaultWriteObject();
+        } finally {
+            lambda = null;
+            Q = null;
+            xbar = null;
+        }
+    }
+
+    public int getN(){
+        return n;
+    }
+
+    public String getPcaModelType() {
+        return pcaModelType;
+    }
+
+    void setPcaModelType(String m) {
+        pcaModelType = m;
+    }
+
+    void setNumPcaComps(int n) {
+        numPcaComps = n;
+    }
+
+    public int getNumPcaComps() {
+        return numPcaComps;
+    }
+
+    void setWinSize(int s) {
+        winSize = s;
+    }
+
+    public int getWinSize() {
+        return winSize;
+    }
+
+    void setBlockSize(int b) {
+        if (b < 1) {
+            throw new IllegalArgumentException("PCA block size must be positive, got " + b);
+        }
+        blockSize = b;
+        batch = null;
+        batchFill = 0;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    // pending block of samples, allocated once the sample dimension is known
+    DMatrixRMaj getBatch(int d) {
+        if (batch == null || batch.numCols != d) {
+            batch = new DMatrixRMaj(blockSize, d);
+            batchFill = 0;
+        }
+        return batch;
+    }
+
+    int getBatchFill() {
+        return batchFill;
+    }
+
+    void setBatchFill(int f) {
+        batchFill = f;
+    }
+
+    public String getWeighting() {
+        return weighting;
+    }
+
+    public double getHalfLife() {
+        return halfLife;
+    }
+
+    void setWeighting(String w, double h) {
+        switch (w) {
+            case "cumulative":
+                break;
+            case "exponential":
+                if (h <= 0.0) {
+                    throw new IllegalArgumentException("Exponential forgetting needs a positive half-life, got " + h);
+                }
+                break;
+            case "window":
+                if (winSize < 2) {
+                    throw new IllegalArgumentException("Sliding window PCA needs a window of at least 2 samples, got "
+                            + winSize);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown PCA weighting " + w);
+        }
+        weighting = w;
+        halfLife = h;
+        window = null;
+        windowHead = 0;
+        windowFill = 0;
+        scatter = null;
+    }
+
+    String getStoragePrecision() {
+        return storagePrecision;
+    }
+
+    boolean isStoredAsFloat32() {
+        return storagePrecision.equals("float32");
+    }
+
+    void setStoragePrecision(String p) {
+        if (!p.equals("float64") && !p.equals("float32")) {
+            throw new IllegalArgumentException("Unknown PCA storage precision " + p + ", expected float64 or float32");
+        }
+        storagePrecision = p;
+    }
+
+    void setBootstrap(int samples, int comps) {
+        if (samples > 0 && (comps < 1 || samples <= comps)) {
+            throw new IllegalArgumentException("PCA bootstrap needs at least one component and more samples than"
+                    + " components, got " + samples + " samples and " + comps + " components");
+        }
+        if (samples > 0 && weighting.equals("window")) {
+            throw new IllegalArgumentException("Sliding window PCA builds its model from the window, it takes no bootstrap");
+        }
+        bootstrapSamples = samples;
+        bootstrapComps = comps;
+        bootstrap = null;
+        bootstrapFill = 0;
+    }
+
+    // samples are still buffered for the batch PCA, the model has not been seeded yet
+    boolean isBootstrapping() {
+        return bootstrapSamples > 0;
+    }
+
+    int getBootstrapSamples() {
+        return bootstrapSamples;
+    }
+
+    int getBootstrapComps() {
+        return bootstrapComps;
+    }
+
+    // buffer of the bootstrap samples, allocated once the sample dimension is known
+    DMatrixRMaj getBootstrapBuffer(int d) {
+        if (bootstrap == null || bootstrap.numCols != d) {
+            bootstrap = new DMatrixRMaj(bootstrapSamples, d);
+            bootstrapFill = 0;
+        }
+        return bootstrap;
+    }
+
+    // buffered bootstrap samples, null before the first one
+    DMatrixRMaj getBootstrap() {
+        return bootstrap;
+    }
+
+    int getBootstrapFill() {
+        return bootstrapFill;
+    }
+
+    void setBootstrapFill(int f) {
+        bootstrapFill = f;
+    }
+
+    // number of samples n whose 1/(n + 1) weight halves the past every halfLife samples
+    public int getEffectiveSamples() {
+        return (int) Math.min(Math.round(1.0 / (1.0 - Math.pow(0.5, 1.0 / halfLife))) - 1, Integer.MAX_VALUE);
+    }
+
+    // window samples, one per row, allocated once the sample dimension is known
+    DMatrixRMaj getWindow(int d) {
+        if (window == null || window.numCols != d) {
+            window = new DMatrixRMaj(winSize, d);
+            scatter = null;
+            windowHead = 0;
+            windowFill = 0;
+        }
+        return window;
+    }
+
+    // d x d scatter of the window, only allocated for model types that cannot remove samples
+    DMatrixRMaj getScatter(int d) {
+        if (scatter == null || scatter.numCols != d) {
+            scatter = new DMatrixRMaj(d, d);
+        }
+        return scatter;
+    }
+
+    // window scatter, null while the window runs on the downdate of the model type
+    DMatrixRMaj getScatter() {
+        return scatter;
+    }
+
+    int getWindowHead() {
+        return windowHead;
+    }
+
+    int getWindowFill() {
+        return windowFill;
+    }
+
+    void setWindowPosition(int head, int fill) {
+        windowHead = head;
+        windowFill = fill;
+    }
+
+    long getSpeCount() {
+        return speCount;
+    }
+
+    double getSpeMean() {
+        return speMean;
+    }
+
+    double getSpeVar() {
+        return speVar;
+    }
+
+    void setAdaptiveRank(double target, double margin, int min, int max, int patience) {
+        if (target > 0.0 && (target >= 1.0 || margin < 0.0 || target + margin >= 1.0 || min < 1 || (max != 0 && max < min)
+                || patience < 1)) {
+            throw new IllegalArgumentException("Adaptive PCA rank needs 0 < target < target + margin < 1,"
+                    + " 1 <= min <= max (0 for no maximum) and a positive patience, got " + target + ", " + margin + ", " + min + ", "
+                    + max + ", " + patience);
+        }
+        if (target > 0.0 && weighting.equals("window")) {
+            throw new IllegalArgumentException("Sliding window PCA keeps a fixed number of components");
+        }
+        rankTarget = target;
+        rankMargin = margin;
+        rankMin = min;
+        rankMax = max;
+        rankPatience = patience;
+        rankRun = 0;
+    }
+
+    boolean isAdaptiveRank() {
+        return rankTarget > 0.0;
+    }
+
+    double getRankTarget() {
+        return rankTarget;
+    }
+
+    double getRankMargin() {
+        return rankMargin;
+    }
+
+    int getRankMin() {
+        return rankMin;
+    }
+
+    int getRankMax() {
+        return rankMax;
+    }
+
+    int getRankPatience() {
+        return rankPatience;
+    }
+
+    int getRankRun() {
+        return rankRun;
+    }
+
+    void setRankRun(int r) {
+        rankRun = r;
+    }
+
+    double getTotalVariance() {
+        return totalVariance;
+    }
+
+    long getVarianceCount() {
+        return varianceCount;
+    }
+
+    void setTotalVariance(double v, long count) {
+        totalVariance = v;
+        varianceCount = count;
+    }
+
+    void setOrthonormalisation(double tolerance, int every) {
+        if (tolerance < 0.0 || every < 0) {
+            throw new IllegalArgumentException("PCA re-orthonormalisation needs a non-negative tolerance and period,"
+                    + " got " + tolerance + " and " + every);
+        }
+        orthoTolerance = tolerance;
+        orthoEvery = every;
+        orthoCount = 0L;
+        orthoDrift = null;
+    }
+
+    boolean isOrthonormalising() {
+        return orthoTolerance > 0.0 || orthoEvery > 0;
+    }
+
+    double getOrthoTolerance() {
+        return orthoTolerance;
+    }
+
+    int getOrthoEvery() {
+        return orthoEvery;
+    }
+
+    long getOrthoCount() {
+        return orthoCount;
+    }
+
+    void setOrthoCount(long count) {
+        orthoCount = count;
+    }
+
+    // terms (q_j'q_j - 1)^2 + sum_(i != j) (q_i'q_j)^2 of the columns, whose sum is ||Q'Q - I||_F^2;
+    // reset to 0 (in control) when the rank changes or the state was restored
+    double[] getOrthoDrift(int q) {
+        if (orthoDrift == null || orthoDrift.length != q) {
+            orthoDrift = new double[q];
+            orthoColumn = 0;
+        }
+        return orthoDrift;
+    }
+
+    // column of Q whose term is refreshed next, round robin
+    int nextOrthoColumn(int q) {
+        int c = orthoColumn % q;
+        orthoColumn = c + 1;
+        return c;
+    }
+
+    void setGainSchedule(String schedule, double constant, double decay, double[] scale) {
+        switch (schedule) {
+            case "inverse-square":
+            case "harmonic":
+            case "constant":
+            case "adagrad":
+            case "rmsprop":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown PCA gain schedule " + schedule);
+        }
+        if (!(constant > 0.0) || !(decay > 0.0 && decay < 1.0)) {
+            throw new IllegalArgumentException("PCA gain schedule needs a positive constant and a decay in (0, 1),"
+                    + " got " + constant + " and " + decay);
+        }
+        if (scale != null) {
+            for (double c : scale) {
+                if (!(c > 0.0)) {
+                    throw new IllegalArgumentException("PCA gain scale needs positive factors, got "
+                            + Arrays.toString(scale));
+                }
+            }
+        }
+        gainSchedule = schedule;
+        gainConstant = constant;
+        gainDecay = decay;
+        gainScale = scale == null || scale.length == 0 ? null : scale.clone();
+        gainAccumulator = null;
+    }
+
+    String getGainSchedule() {
+        return gainSchedule;
+    }
+
+    double getGainConstant() {
+        return gainConstant;
+    }
+
+    double getGainDecay() {
+        return gainDecay;
+    }
+
+    double[] getGainScale() {
+        return gainScale;
+    }
+
+    double[] getGainAccumulator() {
+        return gainAccumulator;
+    }
+
+    void setGainAccumulator(double[] accumulator) {
+        gainAccumulator = accumulator;
+    }
+
+    // drop the accumulated squares of a removed component
+    void removeGainComponent(int c) {
+        if (gainAccumulator != null && c < gainAccumulator.length) {
+            double[] kept = new double[gainAccumulator.length - 1];
+            System.arraycopy(gainAccumulator, 0, kept, 0, c);
+            System.arraycopy(gainAccumulator, c + 1, kept, c, kept.length - c);
+            gainAccumulator = kept;
+        }
+    }
+
+    // gains of the q components for an update on the b centered samples x (b x d, row-major) and their
+    // projections y (b x q), written to the workspace. The schedules in n take n in floating point:
+    // 1/(n * n) in int arithmetic overflows past n = 46341 and the step size jumps around from there
+    public double[] computeGains(double[] x, int d, double[] y, int b, int q) {
+        double[] gains = workspace.gainBuffer(q);
+        double base = 1.0;
+        double samples = Math.max(n, 1);
+        switch (gainSchedule) {
+            case "inverse-square":
+                base = 1.0 / (samples * samples);
+                break;
+            case "harmonic":
+                base = 1.0 / samples;
+                break;
+            default:
+                break;
+        }
+        boolean adaptive = gainSchedule.equals("adagrad") || gainSchedule.equals("rmsprop");
+        if (adaptive) {
+            if (gainAccumulator == null || gainAccumulator.length != q) {
+                // new components start without history
+                gainAccumulator = gainAccumulator == null ? new double[q] : Arrays.copyOf(gainAccumulator, q);
+            }
+            boolean adagrad = gainSchedule.equals("adagrad");
+            for (int j = 0; j < b; j++) {
+                double residual = 0.0;
+                for (int r = j * d; r < (j + 1) * d; r++) {
+                    residual += x[r] * x[r];
+                }
+                for (int i = 0; i < q; i++) {
+                    double yi = y[j * q + i];
+                    residual = Math.max(residual - yi * yi, 0.0);
+                    double step = yi * yi * residual;
+                    double acc = gainAccumulator[i];
+                    // the first sample sets the rmsprop mean instead of decaying an empty one
+                    gainAccumulator[i] = adagrad ? acc + step
+                            : acc == 0.0 ? step : gainDecay * acc + (1.0 - gainDecay) * step;
+                }
+            }
+        }
+        for (int i = 0; i < q; i++) {
+            double gain = gainConstant * base;
+            if (gainScale != null && i < gainScale.length) {
+                gain *= gainScale[i];
+            }
+            if (adaptive) {
+                gain /= Math.sqrt(gainAccumulator[i] + GAIN_EPSILON);
+            }
+            gains[i] = Math.min(gain, 1.0);
+        }
+        return gains;
+    }
+
+    void setSpeStatistics(long count, double mean, double var) {
+        speCount = count;
+        speMean = mean;
+        speVar = var;
+    }
+
+    int getAlarmRun() {
+        return alarmRun;
+    }
+
+    void setAlarmRun(int r) {
+        alarmRun = r;
+    }
+
+    double getLastSpe() {
+        return lastSpe;
+    }
+
+    public void setLastSpe(double spe) {
+        lastSpe = spe;
+    }
+
+    // the scoring left x - xbar and Q'(x - xbar) of the next sample in workX and workY
+    void setProjected() {
+        getWorkspace().projected = this;
+    }
+
+    // true once after setProjected, the update kernel then starts from the projections of the scoring
+    boolean takeProjection() {
+        if (workspace == null || workspace.projected != this) {
+            return false;
+        }
+        workspace.projected = null;
+        return true;
+    }
+
+    // work buffers the kernels use on this state, a state of its own unless one is attached
+    StreamPCAWorkspace getWorkspace() {
+        if (workspace == null) {
+            workspace = new StreamPCAWorkspace();
+        }
+        return workspace;
+    }
+
+    void setWorkspace(StreamPCAWorkspace w) {
+        workspace = w;
+    }
+
+    public DMatrixRMaj getWorkX() {
+        return workspace.workX;
+    }
+
+    public DMatrixRMaj getWorkV() {
+        return workspace.workV;
+    }
+
+    public DMatrixRMaj getWorkB() {
+        return workspace.workB;
+    }
+
+    public DMatrixRMaj getWorkP() {
+        return workspace.workP;
+    }
+
+    // projections of the last sample on Q. The buffer belongs to the workspace all states of a kernel
+    // share and the updates use it as well: it only holds the projections of the sample scored on this
+    // state until the kernel updates or projects again
+    public DMatrixRMaj getWorkY() {
+        return workspace.workY;
+    }
+
+    public QRDecomposition<DMatrixRMaj> getWorkQR() {
+        return workspace.workQR;
+    }
+
+    public DMatrixRMaj getWorkRow() {
+        return workspace.workRow;
+    }
+
+    public DMatrixRMaj getWorkXB() {
+        return workspace.workXB;
+    }
+
+    public DMatrixRMaj getWorkYB() {
+        return workspace.workYB;
+    }
+
+    public DMatrixRMaj getWorkM() {
+        return workspace.workM;
+    }
+
+    public DMatrixRMaj getWorkG() {
+        return workspace.workG;
+    }
+
+    public DMatrixRMaj getWorkH() {
+        return workspace.workH;
+    }
+
+    public DMatrixRMaj getWorkBasis() {
+        return workspace.workBasis;
+    }
+
+    public DMatrixRMaj getWorkK() {
+        return workspace.workK;
+    }
+
+    public DMatrixRMaj getWorkUK() {
+        return workspace.workUK;
+    }
+
+    public SingularValueDecomposition_F64<DMatrixRMaj> getWorkSVD() {
+        return workspace.workSVD;
+    }
+
+    public EigenDecomposition_F64<DMatrixRMaj> getWorkEig() {
+        return workspace.workEig;
+    }
+
+    public double[] getWorkEigVals() {
+        return workspace.workEigVals;
+    }
+
+    public void ensureWorkspace(int d, int q) {
+        getWorkspace().ensureWorkspace(d, q);
+    }
+
+    public void ensureBatchWorkspace(int b, int d, int q) {
+        getWorkspace().ensureBatchWorkspace(b, d, q);
+    }
+
+    public void ensureSvdWorkspace(int b, int d, int q) {
+        getWorkspace().ensureSvdWorkspace(b, d, q);
+    }
+
+    public void ensureDowndateWorkspace(int d, int q) {
+        getWorkspace().ensureDowndateWorkspace(d, q);
+    }
+
+    public StreamPCAModelsState(int nC, int wS) {
+        setNumPcaComps(nC);
+        setWinSize(wS);
+        setBlockSize(1);
+        setPcaModelType("ccpca");
+        setLambda(new SimpleMatrix(getNumPcaComps(), 1));
+        setQ(new SimpleMatrix(getNumPcaComps(), getNumPcaComps()));
+        setXbar(new SimpleMatrix(getNumPcaComps(), 1));
+        setN(0);
+    }
+
+    private StreamPCAModelsState() {
+    }
+
+    // state without the placeholder lambda, Q and xbar of the public constructor, for the states whose
+    // matrices are set right after (deserialize, copy, merge)
+    static StreamPCAModelsState withoutMatrices(int nC, int wS) {
+        StreamPCAModelsState state = new StreamPCAModelsState();
+        state.setNumPcaComps(nC);
+        state.setWinSize(wS);
+        state.setBlockSize(1);
+        state.setPcaModelType("ccpca");
+        state.setN(0);
+        return state;
+    }
+
+    // deep copy of the model (matrices, counters and pending samples), work buffers are not copied
+    public StreamPCAModelsState copy() {
+        return copyInto(withoutMatrices(numPcaComps, winSize));
+    }
+
+    // deep copy of the model into c, reusing the matrices of c that already have the right shape
+    StreamPCAModelsState copyInto(StreamPCAModelsState c) {
+        c.setNumPcaComps(numPcaComps);
+        copyConfigInto(c);
+        if (isParked) {
+            // bulk copy of the direct buffer, the copy is parked as well
+            int bytes = 8 * (parkedShape[0] * parkedShape[1] + parkedShape[2] * parkedShape[3]
+                    + parkedShape[4] * parkedShape[5]);
+            if (c.parked == null || c.parked.capacity() < bytes) {
+                c.parked = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+            }
+            ByteBuffer from = parked.duplicate();
+            from.clear();
+            from.limit(bytes);
+            c.parked.clear();
+            c.parked.put(from);
+            c.parked.clear();
+            c.parkedShape = parkedShape.clone();
+            if (!c.isParked && c.workspace != null && c.workspace.attached == c) {
+                c.workspace.attached = null;
+            }
+            c.lambda = null;
+            c.Q = null;
+            c.xbar = null;
+            c.isParked = true;
+        } else {
+            // a parked c only keeps its buffer for reuse
+            if (c.isParked) {
+                c.isParked = false;
+                c.lambda = null;
+                c.Q = null;
+                c.xbar = null;
+            }
+            c.lambda = copyMatrix(lambda, c.lambda);
+            c.Q = copyMatrix(Q, c.Q);
+            c.xbar = copyMatrix(xbar, c.xbar);
+        }
+        c.setN(n);
+        c.setSpeStatistics(speCount, speMean, speVar);
+        c.setAlarmRun(alarmRun);
+        c.rankRun = rankRun;
+        c.totalVariance = totalVariance;
+        c.varianceCount = varianceCount;
+        c.orthoCount = orthoCount;
+        c.orthoDrift = orthoDrift == null ? null : orthoDrift.clone();
+        c.orthoColumn = orthoColumn;
+        c.gainAccumulator = gainAccumulator == null ? null : gainAccumulator.clone();
+        // the window buffers are reused like the matrices
+        if (window == null) {
+            c.window = null;
+        } else if (c.window == null || c.window.numRows != window.numRows || c.window.numCols != window.numCols) {
+            c.window = window.copy();
+        } else {
+            c.window.set(window);
+        }
+        if (scatter == null) {
+            c.scatter = null;
+        } else if (c.scatter == null || c.scatter.numCols != scatter.numCols) {
+            c.scatter = scatter.copy();
+        } else {
+            c.scatter.set(scatter);
+        }
+        c.windowHead = windowHead;
+        c.windowFill = windowFill;
+        c.setBootstrap(bootstrapSamples, bootstrapComps);
+        if (bootstrap != null && bootstrapFill > 0) {
+            DMatrixRMaj b = c.getBootstrapBuffer(bootstrap.numCols);
+            System.arraycopy(bootstrap.data, 0, b.data, 0, bootstrapFill * bootstrap.numCols);
+            c.setBootstrapFill(bootstrapFill);
+        }
+        c.setBatchFill(0);
+        if (batch != null && batchFill > 0) {
+            DMatrixRMaj b = c.getBatch(batch.numCols);
+            System.arraycopy(batch.data, 0, b.data, 0, batchFill * batch.numCols);
+            c.setBatchFill(batchFill);
+        }
+        return c;
+    }
+
+    // options of the model into c (type, block size, off-heap, window size, weighting, storage precision,
+    // adaptive rank, re-orthonormalisation, gains), without its matrices, samples and running statistics.
+    // The options were validated on this state
+    void copyConfigInto(StreamPCAModelsState c) {
+        c.setPcaModelType(pcaModelType);
+        if (c.getBlockSize() != blockSize) {
+            c.setBlockSize(blockSize);
+        }
+        c.offHeap = offHeap;
+        c.setWinSize(winSize);
+        c.weighting = weighting;
+        c.halfLife = halfLife;
+        c.storagePrecision = storagePrecision;
+        c.rankTarget = rankTarget;
+        c.rankMargin = rankMargin;
+        c.rankMin = rankMin;
+        c.rankMax = rankMax;
+        c.rankPatience = rankPatience;
+        c.orthoTolerance = orthoTolerance;
+        c.orthoEvery = orthoEvery;
+        c.gainSchedule = gainSchedule;
+        c.gainConstant = gainConstant;
+        c.gainDecay = gainDecay;
+        c.gainScale = gainScale == null ? null : gainScale.clone();
+    }
+
+    private static SimpleMatrix copyMatrix(SimpleMatrix from, SimpleMatrix reuse) {
+        if (reuse == null || reuse.numRows() != from.numRows() || reuse.numCols() != from.numCols()) {
+            return from.copy();
+        }
+        reuse.getDDRM().set(from.getDDRM());
+        return reuse;
+    }
+}
@@ -0,0 +1,462 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.api.common.typeutils.CompatibilityResult;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.api.common.typeutils.TypeSerializerConfigSnapshot;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.simple.SimpleMatrix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Flink serializer of the complete streaming PCA model: model type, counters, mean, eigenvalues,
+// eigenvectors, the samples of a pending block, the sliding window and the bootstrap samples. Every
+// record starts with its format version and stores each matrix as a length-prefixed block of
+// little-endian values. Q can be written as float32 (lossy, half the size) or deflated after a byte
+// shuffle (lossless; the sign and exponent bytes of unit-norm columns compress, the mantissa bytes do
+// not, which saves about 10% on d = 1000, q = 10). Models stored as float32 have all their matrices but
+// the window scatter written as float32.
+public final class StreamPCAModelsStateSerializer extends TypeSerializer<StreamPCAModelsState> {
+
+    private static final long serialVersionUID = 1L;
+
+    // layout of the records written by this serializer
+    static final int FORMAT_VERSION = 1;
+
+    public enum MatrixEncoding { FLOAT64, FLOAT32, DEFLATE }
+
+    private final MatrixEncoding qEncoding;
+
+    // little-endian scratch buffer, grown on demand and never shared between duplicates
+    private transient ByteBuffer scratch;
+
+    // byte planes of a DEFLATE matrix and the codecs compressing them, reused across records
+    private transient byte[] shuffled;
+    private transient Deflater deflater;
+    private transient Inflater inflater;
+
+    public StreamPCAModelsStateSerializer() {
+        this(MatrixEncoding.FLOAT64);
+    }
+
+    public StreamPCAModelsStateSerializer(MatrixEncoding qEncoding) {
+        this.qEncoding = qEncoding;
+    }
+
+    public MatrixEncoding getQEncoding() {
+        return qEncoding;
+    }
+
+    @Override
+    public boolean isImmutableType() {
+        return false;
+    }
+
+    @Override
+    public StreamPCAModelsStateSerializer duplicate() {
+        return new StreamPCAModelsStateSerializer(qEncoding);
+    }
+
+    @Override
+    public StreamPCAModelsState createInstance() {
+        return new StreamPCAModelsState(0, 0);
+    }
+
+    @Override
+    public StreamPCAModelsState copy(StreamPCAModelsState from) {
+        return from.copy();
+    }
+
+    @Override
+    public StreamPCAModelsState copy(StreamPCAModelsState from, StreamPCAModelsState reuse) {
+        return reuse == null ? from.copy() : from.copyInto(reuse);
+    }
+
+    @Override
+    public int getLength() {
+        return -1;
+    }
+
+    @Override
+    public void serialize(StreamPCAModelsState record, DataOutputView target) throws IOException {
+        target.writeByte(FORMAT_VERSION);
+        target.writeUTF(record.getPcaModelType());
+        target.writeLong(record.getN());
+        target.writeInt(record.getNumPcaComps());
+        target.writeInt(record.getWinSize());
+        target.writeInt(record.getBlockSize());
+
+        // the scatter of the window accumulates over the whole stream and is always kept in double
+        MatrixEncoding values = record.isStoredAsFloat32() ? MatrixEncoding.FLOAT32 : MatrixEncoding.FLOAT64;
+        MatrixEncoding qValues = record.isStoredAsFloat32() ? MatrixEncoding.FLOAT32 : qEncoding;
+        int d;
+        if (record.isParked()) {
+            // an off-heap model is written straight from its direct buffer, without attaching it
+            int[] shape = record.getParkedShape();
+            d = shape[4] * shape[5];
+            writeValues(shape[4], shape[5], record.getParkedValues(2), values, target);
+            writeValues(shape[0], shape[1], record.getParkedValues(0), values, target);
+            writeValues(shape[2], shape[3], record.getParkedValues(1), qValues, target);
+        } else {
+            d = record.getXbar().getNumElements();
+            writeMatrix(record.getXbar().getDDRM(), values, target);
+            writeMatrix(record.getLambda().getDDRM(), values, target);
+            writeMatrix(record.getQ().getDDRM(), qValues, target);
+        }
+
+        target.writeLong(record.getSpeCount());
+        target.writeDouble(record.getSpeMean());
+        target.writeDouble(record.getSpeVar());
+        target.writeInt(record.getAlarmRun());
+
+        target.writeUTF(record.getWeighting());
+        target.writeDouble(record.getHalfLife());
+        int windowFill = record.getWindowFill();
+        target.writeInt(windowFill);
+        if (windowFill > 0) {
+            target.writeInt(record.getWindowHead());
+            writeMatrix(record.getWindow(d), values, target);
+            DMatrixRMaj scatter = record.getScatter();
+            target.writeBoolean(scatter != null);
+            if (scatter != null) {
+                writeMatrix(scatter, MatrixEncoding.FLOAT64, target);
+            }
+        }
+
+        // samples buffered for the batch PCA of a model that has not been seeded yet
+        target.writeInt(record.getBootstrapSamples());
+        target.writeInt(record.getBootstrapComps());
+        int bootstrapFill = record.getBootstrapFill();
+        target.writeInt(bootstrapFill);
+        if (bootstrapFill > 0) {
+            DMatrixRMaj bootstrap = record.getBootstrap();
+            writeValues(bootstrapFill, bootstrap.numCols,
+                    DoubleBuffer.wrap(bootstrap.data, 0, bootstrapFill * bootstrap.numCols), values, target);
+        }
+
+        // samples of a block that has not been applied yet
+        int fill = record.getBatchFill();
+        target.writeInt(fill);
+        if (fill > 0) {
+            DMatrixRMaj batch = record.getBatch(d);
+            writeValues(fill, batch.numCols, DoubleBuffer.wrap(batch.data, 0, fill * batch.numCols), values, target);
+        }
+
+        target.writeUTF(record.getStoragePrecision());
+        target.writeBoolean(record.isOffHeap());
+
+        target.writeDouble(record.getRankTarget());
+        target.writeDouble(record.getRankMargin());
+        target.writeInt(record.getRankMin());
+        target.writeInt(record.getRankMax());
+        target.writeInt(record.getRankPatience());
+        target.writeInt(record.getRankRun());
+        target.writeDouble(record.getTotalVariance());
+        target.writeLong(record.getVarianceCount());
+
+        target.writeDouble(record.getOrthoTolerance());
+        target.writeInt(record.getOrthoEvery());
+        target.writeLong(record.getOrthoCount());
+
+        // gain schedule, the scale and the adaptive accumulator as vectors, empty without them
+        target.writeUTF(record.getGainSchedule());
+        target.writeDouble(record.getGainConstant());
+        target.writeDouble(record.getGainDecay());
+        writeVector(record.getGainScale(), target);
+        writeVector(record.getGainAccumulator(), target);
+    }
+
+    @Override
+    public StreamPCAModelsState deserialize(DataInputView source) throws IOException {
+        int version = source.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported streaming PCA state format version " + version);
+        }
+        String modelType = source.readUTF();
+        long n = source.readLong();
+        int numPcaComps = source.readInt();
+        int winSize = source.readInt();
+        int blockSize = source.readInt();
+
+        StreamPCAModelsState state = StreamPCAModelsState.withoutMatrices(numPcaComps, winSize);
+        state.setPcaModelType(modelType);
+        state.setN((int) n);
+        state.setBlockSize(blockSize);
+        state.setXbar(SimpleMatrix.wrap(readMatrix(source)));
+        state.setLambda(SimpleMatrix.wrap(readMatrix(source)));
+        state.setQ(SimpleMatrix.wrap(readMatrix(source)));
+
+        long speCount = source.readLong();
+        double speMean = source.readDouble();
+        double speVar = source.readDouble();
+        state.setSpeStatistics(speCount, speMean, speVar);
+        state.setAlarmRun(source.readInt());
+
+        state.setWeighting(source.readUTF(), source.readDouble());
+        int windowFill = source.readInt();
+        if (windowFill > 0) {
+            int windowHead = source.readInt();
+            DMatrixRMaj window = readMatrix(source);
+            state.getWindow(window.numCols).set(window);
+            if (source.readBoolean()) {
+                state.getScatter(window.numCols).set(readMatrix(source));
+            }
+            state.setWindowPosition(windowHead, windowFill);
+        }
+
+        state.setBootstrap(source.readInt(), source.readInt());
+        int bootstrapFill = source.readInt();
+        if (bootstrapFill > 0) {
+            DMatrixRMaj buffered = readMatrix(source);
+            DMatrixRMaj bootstrap = state.getBootstrapBuffer(buffered.numCols);
+            System.arraycopy(buffered.data, 0, bootstrap.data, 0, buffered.getNumElements());
+            state.setBootstrapFill(bootstrapFill);
+        }
+
+        int fill = source.readInt();
+        if (fill > 0) {
+            DMatrixRMaj pending = readMatrix(source);
+            DMatrixRMaj batch = state.getBatch(pending.numCols);
+            System.arraycopy(pending.data, 0, batch.data, 0, pending.getNumElements());
+            state.setBatchFill(fill);
+        }
+
+        state.setStoragePrecision(source.readUTF());
+        state.setOffHeap(source.readBoolean());
+
+        state.setAdaptiveRank(source.readDouble(), source.readDouble(), source.readInt(), source.readInt(),
+                source.readInt());
+        state.setRankRun(source.readInt());
+        double totalVariance = source.readDouble();
+        state.setTotalVariance(totalVariance, source.readLong());
+
+        state.setOrthonormalisation(source.readDouble(), source.readInt());
+        state.setOrthoCount(source.readLong());
+
+        String schedule = source.readUTF();
+        double constant = source.readDouble();
+        double decay = source.readDouble();
+        state.setGainSchedule(schedule, constant, decay, readVector(source));
+        state.setGainAccumulator(readVector(source));
+        // restored off-heap models go back to their direct buffer
+        state.park();
+        return state;
+    }
+
+    @Override
+    public StreamPCAModelsState deserialize(StreamPCAModelsState reuse, DataInputView source) throws IOException {
+        return deserialize(source);
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+        serialize(deserialize(source), target);
+    }
+
+    private void writeVector(double[] v, DataOutputView target) throws IOException {
+        double[] data = v == null ? new double[0] : v;
+        writeValues(data.length, 1, DoubleBuffer.wrap(data), MatrixEncoding.FLOAT64, target);
+    }
+
+    private double[] readVector(DataInputView source) throws IOException {
+        DMatrixRMaj v = readMatrix(source);
+        return v.getNumElements() == 0 ? null : v.data;
+    }
+
+    private void writeMatrix(DMatrixRMaj m, MatrixEncoding encoding, DataOutputView target) throws IOException {
+        writeValues(m.numRows, m.numCols, DoubleBuffer.wrap(m.data, 0, m.getNumElements()), encoding, target);
+    }
+
+    // encoding, rows, cols, byte length, then the encoded values in row-major order, read from a
+    // heap array or a direct buffer
+    private void writeValues(int rows, int cols, DoubleBuffer data, MatrixEncoding encoding, DataOutputView target)
+            throws IOException {
+        int count = rows * cols;
+        ByteBuffer buf = scratch(9 * count);
+        switch (encoding) {
+            case FLOAT32:
+                for (int i = 0; i < count; i++) {
+                    buf.putFloat((float) data.get(i));
+                }
+                break;
+            case DEFLATE:
+                // byte k of every value goes to plane k, so the alike sign and exponent bytes are adjacent
+                byte[] planes = shuffled(8 * count);
+                for (int i = 0; i < count; i++) {
+                    long bits = Double.doubleToRawLongBits(data.get(i));
+                    for (int b = 0; b < 8; b++) {
+                        planes[b * count + i] = (byte) (bits >>> (8 * b));
+                    }
+                }
+                if (deflater == null) {
+                    deflater = new Deflater(Deflater.BEST_SPEED);
+                }
+                deflater.reset();
+                deflater.setInput(planes, 0, 8 * count);
+                deflater.finish();
+                // the scratch buffer leaves count bytes over the raw size, more than deflate ever adds
+                while (!deflater.finished()) {
+                    buf.position(buf.position() + deflater.deflate(buf.array(), buf.position(), buf.remaining()));
+                }
+                break;
+            default:
+                // bulk copy through a view of the buffer instead of one putDouble per value
+                buf.asDoubleBuffer().put(data);
+                buf.position(buf.position() + 8 * count);
+                break;
+        }
+        target.writeByte(encoding.ordinal());
+        target.writeInt(rows);
+        target.writeInt(cols);
+        target.writeInt(buf.position());
+        target.write(buf.array(), 0, buf.position());
+    }
+
+    private DMatrixRMaj readMatrix(DataInputView source) throws IOException {
+        MatrixEncoding encoding = MatrixEncoding.values()[source.readUnsignedByte()];
+        int rows = source.readInt();
+        int cols = source.readInt();
+        int length = source.readInt();
+        ByteBuffer buf = scratch(length);
+        source.readFully(buf.array(), 0, length);
+
+        DMatrixRMaj m = new DMatrixRMaj(rows, cols);
+        int count = rows * cols;
+        switch (encoding) {
+            case FLOAT32:
+                for (int i = 0; i < count; i++) {
+                    m.data[i] = buf.getFloat();
+                }
+                break;
+            case DEFLATE:
+                byte[] planes = shuffled(8 * count);
+                if (inflater == null) {
+                    inflater = new Inflater();
+                }
+                inflater.reset();
+                inflater.setInput(buf.array(), 0, length);
+                try {
+                    int read = 0;
+                    while (read < 8 * count) {
+                        int n = inflater.inflate(planes, read, 8 * count - read);
+                        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                            throw new IOException("Truncated deflated matrix of " + rows + " x " + cols);
+                        }
+                        read += n;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt deflated matrix of " + rows + " x " + cols, e);
+                }
+                for (int i = 0; i < count; i++) {
+                    long bits = 0L;
+                    for (int b = 0; b < 8; b++) {
+                        bits |= (planes[b * count + i] & 0xFFL) << (8 * b);
+                    }
+                    m.data[i] = Double.longBitsToDouble(bits);
+                }
+                break;
+            default:
+                buf.asDoubleBuffer().get(m.data, 0, count);
+                break;
+        }
+        return m;
+    }
+
+    private byte[] shuffled(int length) {
+        if (shuffled == null || shuffled.length < length) {
+            shuffled = new byte[Math.max(length, 1024)];
+        }
+        return shuffled;
+    }
+
+    private ByteBuffer scratch(int capacity) {
+        if (scratch == null || scratch.capacity() < capacity) {
+            scratch = ByteBuffer.allocate(Math.max(capacity, 1024)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        scratch.clear();
+        return scratch;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof StreamPCAModelsStateSerializer
+                && ((StreamPCAModelsStateSerializer) obj).canEqual(this)
+                && qEncoding == ((StreamPCAModelsStateSerializer) obj).qEncoding;
+    }
+
+    @Override
+    public boolean canEqual(Object obj) {
+        return obj instanceof StreamPCAModelsStateSerializer;
+    }
+
+    @Override
+    public int hashCode() {
+        return qEncoding.hashCode();
+    }
+
+    @Override
+    public TypeSerializerConfigSnapshot snapshotConfiguration() {
+        return new StreamPCAModelsStateSerializerConfigSnapshot(qEncoding);
+    }
+
+    @Override
+    public CompatibilityResult<StreamPCAModelsState> ensureCompatibility(TypeSerializerConfigSnapshot configSnapshot) {
+        // records carry their own matrix encodings, whichever encoding of Q wrote them can be read back
+        if (configSnapshot instanceof StreamPCAModelsStateSerializerConfigSnapshot) {
+            return CompatibilityResult.compatible();
+        }
+        return CompatibilityResult.requiresMigration();
+    }
+
+    public static final class StreamPCAModelsStateSerializerConfigSnapshot extends TypeSerializerConfigSnapshot {
+
+        private static final int VERSION = 1;
+
+        private MatrixEncoding qEncoding;
+
+        // required for deserialization of the snapshot
+        public StreamPCAModelsStateSerializerConfigSnapshot() {
+        }
+
+        StreamPCAModelsStateSerializerConfigSnapshot(MatrixEncoding qEncoding) {
+            this.qEncoding = qEncoding;
+        }
+
+        @Override
+        public void write(DataOutputView out) throws IOException {
+            super.write(out);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(qEncoding.name());
+        }
+
+        @Override
+        public void read(DataInputView in) throws IOException {
+            super.read(in);
+            in.readInt();
+            qEncoding = MatrixEncoding.valueOf(in.readUTF());
+        }
+
+        @Override
+        public int getVersion() {
+            return VERSION;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof StreamPCAModelsStateSerializerConfigSnapshot
+                    && qEncoding == ((StreamPCAModelsStateSerializerConfigSnapshot) obj).qEncoding;
+        }
+
+        @Override
+        public int hashCode() {
+            return qEncoding.hashCode();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+
+// Type information of the streaming PCA model state, backed by StreamPCAModelsStateSerializer.
+public class StreamPCAModelsStateTypeInfo extends TypeInformation<StreamPCAModelsState> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final StreamPCAModelsStateSerializer.MatrixEncoding qEncoding;
+
+    public StreamPCAModelsStateTypeInfo() {
+        this(StreamPCAModelsStateSerializer.MatrixEncoding.FLOAT64);
+    }
+
+    public StreamPCAModelsStateTypeInfo(StreamPCAModelsStateSerializer.MatrixEncoding qEncoding) {
+        this.qEncoding = qEncoding;
+    }
+
+    @Override
+    public boolean isBasicType() {
+        return false;
+    }
+
+    @Override
+    public boolean isTupleType() {
+        return false;
+    }
+
+    @Override
+    public int getArity() {
+        return 1;
+    }
+
+    @Override
+    public int getTotalFields() {
+        return 1;
+    }
+
+    @Override
+    public Class<StreamPCAModelsState> getTypeClass() {
+        return StreamPCAModelsState.class;
+    }
+
+    @Override
+    public boolean isKeyType() {
+        return false;
+    }
+
+    @Override
+    public TypeSerializer<StreamPCAModelsState> createSerializer(ExecutionConfig config) {
+        return new StreamPCAModelsStateSerializer(qEncoding);
+    }
+
+    @Override
+    public String toString() {
+        return "StreamPCAModelsState<" + qEncoding + ">";
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof StreamPCAModelsStateTypeInfo
+                && ((StreamPCAModelsStateTypeInfo) obj).canEqual(this)
+                && qEncoding == ((StreamPCAModelsStateTypeInfo) obj).qEncoding;
+    }
+
+    @Override
+    public int hashCode() {
+        return qEncoding.hashCode();
+    }
+
+    @Override
+    public boolean canEqual(Object obj) {
+        return obj instanceof StreamPCAModelsStateTypeInfo;
+    }
+}
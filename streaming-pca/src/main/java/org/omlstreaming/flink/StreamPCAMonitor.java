@@ -0,0 +1,217 @@
+package org.omlstreaming.flink;
+
+// Fault detection statistics of a streaming PCA model. Every sample is scored with
+//     Hotelling T^2 = sum_i y_i^2 / lambda_i       (variation inside the model subspace)
+//     SPE (Q)       = |x - Q y|^2                  (variation outside the model subspace)
+// from its projections y on the model before the sample updates it, so T^2, SPE and the contributions
+// all refer to the same lambda, Q and xbar. The T^2 limit is the chi-square quantile with q degrees of
+// freedom, the SPE limit follows Box's approximation SPE ~ g chi^2_h with g and h matched to the
+// running mean and variance of the in-control SPE values (Nomikos, MacGregor 1995).
+// The moments weigh the last SPE_WINDOW samples, so the start-up transient of the model and slow
+// drifts of the process leave the limit. Chi-square quantiles are solved with Newton steps from the
+// Wilson-Hilferty approximation, which alone collapses for the few degrees of freedom of a skewed SPE.
+public final class StreamPCAMonitor {
+
+    // in-control samples needed before the SPE limit is used
+    static final int MIN_SPE_SAMPLES = 30;
+
+    // effective number of in-control samples behind the SPE moments
+    static final int SPE_WINDOW = 500;
+
+    // smallest eigenvalue used to scale a projection, keeps T^2 finite for collapsed components
+    static final double MIN_EIGENVALUE = 1e-12;
+
+    private StreamPCAMonitor() {
+    }
+
+    // T^2 of the last projected sample, the projections are in the workY buffer of the state
+    static double hotellingT2(StreamPCAModelsState state) {
+        double[] yd = state.getWorkY().data, ld = state.getLambda().getDDRM().data;
+        int q = state.getLambda().getNumElements();
+        double t2 = 0.0;
+        for (int i = 0; i < q; i++) {
+            t2 += yd[i] * yd[i] / Math.max(ld[i], MIN_EIGENVALUE);
+        }
+        return t2;
+    }
+
+    // upper control limit of T^2 for q components at the given confidence
+    static double t2Limit(int q, double confidence) {
+        return chiSquareQuantile(q, confidence);
+    }
+
+    // upper control limit of the SPE, NaN (no alarm) while too few in-control samples have been seen
+    static double speLimit(StreamPCAModelsState state, double confidence) {
+        long count = state.getSpeCount();
+        if (count < MIN_SPE_SAMPLES) {
+            return Double.NaN;
+        }
+        double mean = state.getSpeMean();
+        double var = state.getSpeVar();
+        if (mean <= 0.0 || var <= 0.0) {
+            return Double.NaN;
+        }
+        double g = var / (2.0 * mean);
+        double h = 2.0 * mean * mean / var;
+        return g * chiSquareQuantile(h, confidence);
+    }
+
+    // add an in-control SPE value to the running mean and variance, equal weights for the first
+    // SPE_WINDOW samples and exponential forgetting afterwards
+    static void updateSpeStatistics(StreamPCAModelsState state, double spe) {
+        long count = state.getSpeCount() + 1;
+        double w = 1.0 / Math.min(count, SPE_WINDOW);
+        double delta = spe - state.getSpeMean();
+        double mean = state.getSpeMean() + w * delta;
+        double var = (1.0 - w) * (state.getSpeVar() + w * delta * delta);
+        state.setSpeStatistics(count, mean, var);
+    }
+
+    // Per-variable contributions of a sample against the current Q and xbar of the model, the ones it
+    // was scored on, written to out:
+    //     SPE: c_j = e_j^2 of the residual e = xc - Q Q' xc, they sum up to the SPE
+    //     T^2: c_j = xc_j sum_i q_ji y_i / lambda_i, they sum up to T^2; negative ones are set to 0 as
+    //          they pull the sample towards the centre and point at no faulty variable
+    static void contributions(StreamPCAModelsState state, double[] sample, boolean spe, double[] out) {
+        double[] qd = state.getQ().getDDRM().data, md = state.getXbar().getDDRM().data;
+        double[] ld = state.getLambda().getDDRM().data;
+        int d = sample.length, q = state.getQ().numCols();
+
+        double[] y = new double[q];
+        for (int r = 0, idx = 0; r < d; r++) {
+            double xc = sample[r] - md[r];
+            for (int c = 0; c < q; c++, idx++) {
+                y[c] += qd[idx] * xc;
+            }
+        }
+        if (!spe) {
+            for (int c = 0; c < q; c++) {
+                y[c] /= Math.max(ld[c], MIN_EIGENVALUE);
+            }
+        }
+        for (int r = 0, idx = 0; r < d; r++) {
+            double xc = sample[r] - md[r];
+            double s = 0.0;
+            for (int c = 0; c < q; c++, idx++) {
+                s += qd[idx] * y[c];
+            }
+            out[r] = spe ? (xc - s) * (xc - s) : Math.max(xc * s, 0.0);
+        }
+    }
+
+    // quantile of the chi-square distribution with k degrees of freedom, solved on the gamma(k/2)
+    // distribution by Newton steps kept inside a bracket of the root
+    static double chiSquareQuantile(double k, double p) {
+        double a = 0.5 * k;
+        double lgA = logGamma(a);
+
+        double lo = 0.0, hi = Math.max(a, 1.0);
+        while (regularizedGammaP(a, hi, lgA) < p) {
+            lo = hi;
+            hi *= 2.0;
+        }
+        double c = 2.0 / (9.0 * k);
+        double t = 1.0 - c + normalQuantile(p) * Math.sqrt(c);
+        double x = 0.5 * k * t * t * t;
+        if (!(x > lo && x < hi)) {
+            x = 0.5 * (lo + hi);
+        }
+        for (int i = 0; i < 100; i++) {
+            double err = regularizedGammaP(a, x, lgA) - p;
+            if (err < 0.0) {
+                lo = x;
+            } else {
+                hi = x;
+            }
+            double next = x - err / Math.exp((a - 1.0) * Math.log(x) - x - lgA);
+            if (!(next > lo && next < hi)) {
+                next = 0.5 * (lo + hi);
+            }
+            if (Math.abs(next - x) <= 1e-12 * x) {
+                x = next;
+                break;
+            }
+            x = next;
+        }
+        return 2.0 * x;
+    }
+
+    // regularized lower incomplete gamma function P(a, x), series below a + 1, continued fraction above
+    private static double regularizedGammaP(double a, double x, double lgA) {
+        if (x <= 0.0) {
+            return 0.0;
+        }
+        double front = Math.exp(a * Math.log(x) - x - lgA);
+        if (x < a + 1.0) {
+            double ap = a, del = 1.0 / a, sum = del;
+            for (int i = 0; i < 1000 && Math.abs(del) > Math.abs(sum) * 1e-15; i++) {
+                ap += 1.0;
+                del *= x / ap;
+                sum += del;
+            }
+            return sum * front;
+        }
+        final double tiny = 1e-300;
+        double b = x + 1.0 - a, c = 1.0 / tiny, d = 1.0 / b, h = d;
+        for (int i = 1; i < 1000; i++) {
+            double an = -i * (i - a);
+            b += 2.0;
+            d = an * d + b;
+            d = Math.abs(d) < tiny ? tiny : 1.0 / d;
+            c = b + an / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            double del = d * c;
+            h *= del;
+            if (Math.abs(del - 1.0) < 1e-15) {
+                break;
+            }
+        }
+        return 1.0 - front * h;
+    }
+
+    // log of the gamma function (Lanczos approximation, |error| < 2e-10)
+    private static double logGamma(double x) {
+        final double[] cof = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+                -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double ser = 1.000000000190015;
+        for (double co : cof) {
+            ser += co / ++y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * ser / x);
+    }
+
+    // quantile of the standard normal distribution (Acklam's rational approximation, |error| < 1.2e-9)
+    static double normalQuantile(double p) {
+        if (p <= 0.0 || p >= 1.0) {
+            throw new IllegalArgumentException("Normal quantile needs a probability in (0, 1), got " + p);
+        }
+        final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+        final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                6.680131188771972e+01, -1.328068155288572e+01};
+        final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+        final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                3.754408661907416e+00};
+        final double pLow = 0.02425;
+
+        double q, r;
+        if (p < pLow) {
+            q = Math.sqrt(-2.0 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1.0);
+        }
+        if (p > 1.0 - pLow) {
+            q = Math.sqrt(-2.0 * Math.log(1.0 - p));
+            return -(((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1.0);
+        }
+        q = p - 0.5;
+        r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1.0);
+    }
+}
@@ -0,0 +1,147 @@
+package org.omlstreaming.flink;
+
+import org.ejml.data.DMatrixRMaj;
+import org.ejml.dense.row.factory.DecompositionFactory_DDRM;
+import org.ejml.interfaces.decomposition.EigenDecomposition_F64;
+import org.ejml.interfaces.decomposition.QRDecomposition;
+import org.ejml.interfaces.decomposition.SingularValueDecomposition_F64;
+import org.ejml.simple.SimpleMatrix;
+
+// Preallocated work buffers of the in-place update kernels, (re)sized on first use. The buffers only
+// live for one update, so a kernel attaches its single workspace to every state it updates instead
+// of each keyed state carrying its own: for wide samples the buffers of a block update are larger
+// than Q itself. The projections of a scored sample (workY) are read right after they are computed,
+// and by the update of the same state with that sample, before the workspace moves on to another state.
+class StreamPCAWorkspace {
+
+    DMatrixRMaj workX;
+    DMatrixRMaj workV;
+    DMatrixRMaj workB;
+    DMatrixRMaj workP;
+    DMatrixRMaj workY;
+    QRDecomposition<DMatrixRMaj> workQR;
+
+    // block update kernels
+    DMatrixRMaj workRow;
+    DMatrixRMaj workXB;
+    DMatrixRMaj workYB;
+    DMatrixRMaj workM;
+    DMatrixRMaj workG;
+    DMatrixRMaj workH;
+
+    // incremental SVD: the extended basis [Q J], the small core matrix K, its left singular vectors
+    // and the decomposition
+    DMatrixRMaj workBasis;
+    DMatrixRMaj workK;
+    DMatrixRMaj workUK;
+    SingularValueDecomposition_F64<DMatrixRMaj> workSVD;
+    // its downdate: the symmetric eigen decomposition of the core matrix and its eigenvalues
+    EigenDecomposition_F64<DMatrixRMaj> workEig;
+    double[] workEigVals;
+
+    // heap matrices an off-heap model is attached to while it is used, and the state attached to them
+    SimpleMatrix attachedLambda;
+    SimpleMatrix attachedQ;
+    SimpleMatrix attachedXbar;
+    StreamPCAModelsState attached;
+
+    // state whose next sample the scoring projected on its current model: workX holds x - xbar and workY
+    // the projections Q'(x - xbar) until the update kernel takes them
+    StreamPCAModelsState projected;
+
+    // Rayleigh-Ritz step of the sliding window: eigen decomposition of Q' S Q and its eigenvalues
+    EigenDecomposition_F64<DMatrixRMaj> workRitz;
+    double[] workRitzValues;
+
+    EigenDecomposition_F64<DMatrixRMaj> ritzDecomposition(int q) {
+        if (workRitz == null || workRitzValues.length != q) {
+            workRitz = DecompositionFactory_DDRM.eig(q, true, true);
+            workRitzValues = new double[q];
+        }
+        return workRitz;
+    }
+
+    double[] ritzBuffer(int q) {
+        ritzDecomposition(q);
+        return workRitzValues;
+    }
+
+    // one row of Q'Q for the orthonormality monitor
+    double[] workGram;
+
+    double[] gramBuffer(int q) {
+        if (workGram == null || workGram.length < q) {
+            workGram = new double[q];
+        }
+        return workGram;
+    }
+
+    // per-component gains of a gradient update
+    double[] workGains;
+
+    double[] gainBuffer(int q) {
+        if (workGains == null || workGains.length < q) {
+            workGains = new double[q];
+        }
+        return workGains;
+    }
+
+    // make sure the work buffers hold a d-dimensional sample and q projections,
+    // reshape only reallocates when the requested size exceeds the current capacity
+    void ensureWorkspace(int d, int q) {
+        if (workX == null) {
+            workX = new DMatrixRMaj(d, 1);
+            workV = new DMatrixRMaj(d, 1);
+            workB = new DMatrixRMaj(d, 1);
+            workP = new DMatrixRMaj(d, 1);
+            workY = new DMatrixRMaj(q, 1);
+            workQR = DecompositionFactory_DDRM.qr(d, q);
+        }
+        workX.reshape(d, 1);
+        workV.reshape(d, 1);
+        workB.reshape(d, 1);
+        workP.reshape(d, 1);
+        workY.reshape(q, 1);
+    }
+
+    // same as ensureWorkspace, plus the buffers of a block of b samples
+    void ensureBatchWorkspace(int b, int d, int q) {
+        ensureWorkspace(d, q);
+        if (workXB == null) {
+            workRow = new DMatrixRMaj(1, d);
+            workXB = new DMatrixRMaj(b, d);
+            workYB = new DMatrixRMaj(b, q);
+            workM = new DMatrixRMaj(q, q);
+            workG = new DMatrixRMaj(d, q);
+            workH = new DMatrixRMaj(d, q);
+        }
+        workRow.reshape(1, d);
+        workXB.reshape(b, d);
+        workYB.reshape(b, q);
+        workM.reshape(q, q);
+        workG.reshape(d, q);
+        workH.reshape(d, q);
+    }
+
+    // same as ensureBatchWorkspace, plus the buffers of an incremental SVD step over b samples
+    void ensureSvdWorkspace(int b, int d, int q) {
+        ensureBatchWorkspace(b, d, q);
+        int k = q + b;
+        if (workK == null || workK.numRows != k) {
+            workBasis = new DMatrixRMaj(d, k);
+            workK = new DMatrixRMaj(k, k);
+            workUK = new DMatrixRMaj(k, k);
+            workSVD = DecompositionFactory_DDRM.svd(k, k, true, false, false);
+        }
+        workBasis.reshape(d, k);
+    }
+
+    void ensureDowndateWorkspace(int d, int q) {
+        ensureSvdWorkspace(1, d, q);
+        int k = q + 1;
+        if (workEigVals == null || workEigVals.length != k) {
+            workEig = DecompositionFactory_DDRM.eig(k, true, true);
+            workEigVals = new double[k];
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.omlstreaming.flink;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// StreamPCAKernel on the Vector API (jdk.incubator.vector, JDK 17+), loaded by StreamPCAKernels when
+// the JVM provides the module. The loops run over full vectors of the preferred species (4 doubles with
+// AVX2, 8 with AVX-512) and finish the tail with scalar code. Rows shorter than one vector (q below the
+// vector length) would only pay for the broadcasts and lane reductions, they run on the loops of
+// StreamPCAKernel.Scalar instead. The sums are reordered, results differ from the scalar kernel in the
+// last bits.
+final class StreamPCAVectorKernel implements StreamPCAKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private static final StreamPCAKernel SCALAR = new StreamPCAKernel.Scalar();
+
+    @Override
+    public String getName() {
+        return "vector";
+    }
+
+    @Override
+    public double dot(double[] x, double[] y, int n) {
+        if (n < SPECIES.length()) {
+            return SCALAR.dot(x, y, n);
+        }
+        int bound = SPECIES.loopBound(n);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            acc = DoubleVector.fromArray(SPECIES, x, i).fma(DoubleVector.fromArray(SPECIES, y, i), acc);
+        }
+        double total = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            total += x[i] * y[i];
+        }
+        return total;
+    }
+
+    @Override
+    public void multTransA(double[] A, int rows, int cols, double[] x, double[] y) {
+        if (cols < SPECIES.length()) {
+            SCALAR.multTransA(A, rows, cols, x, y);
+            return;
+        }
+        for (int c = 0; c < cols; c++) {
+            y[c] = 0.0;
+        }
+        int bound = SPECIES.loopBound(cols);
+        for (int r = 0, off = 0; r < rows; r++, off += cols) {
+            double xr = x[r];
+            DoubleVector xv = DoubleVector.broadcast(SPECIES, xr);
+            int c = 0;
+            for (; c < bound; c += SPECIES.length()) {
+                DoubleVector.fromArray(SPECIES, A, off + c).fma(xv, DoubleVector.fromArray(SPECIES, y, c))
+                        .intoArray(y, c);
+            }
+            for (; c < cols; c++) {
+                y[c] += A[off + c] * xr;
+            }
+        }
+    }
+
+    @Override
+    public double residual(double[] A, int rows, int cols, double[] x, double[] y) {
+        if (cols < SPECIES.length()) {
+            return SCALAR.residual(A, rows, cols, x, y);
+        }
+        int bound = SPECIES.loopBound(cols);
+        double total = 0.0;
+        for (int r = 0, off = 0; r < rows; r++, off += cols) {
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            int c = 0;
+            for (; c < bound; c += SPECIES.length()) {
+                acc = DoubleVector.fromArray(SPECIES, A, off + c).fma(DoubleVector.fromArray(SPECIES, y, c), acc);
+            }
+            double e = x[r] - acc.reduceLanes(VectorOperators.ADD);
+            for (; c < cols; c++) {
+                e -= A[off + c] * y[c];
+            }
+            total += e * e;
+        }
+        return total;
+    }
+
+    @Override
+    public void rankOne(double[] A, int rows, int cols, double alpha, double[] u, double[] v) {
+        if (cols < SPECIES.length()) {
+            SCALAR.rankOne(A, rows, cols, alpha, u, v);
+            return;
+        }
+        int bound = SPECIES.loopBound(cols);
+        for (int r = 0, off = 0; r < rows; r++, off += cols) {
+            double au = alpha * u[r];
+            DoubleVector auv = DoubleVector.broadcast(SPECIES, au);
+            int c = 0;
+            for (; c < bound; c += SPECIES.length()) {
+                DoubleVector.fromArray(SPECIES, v, c).fma(auv, DoubleVector.fromArray(SPECIES, A, off + c))
+                        .intoArray(A, off + c);
+            }
+            for (; c < cols; c++) {
+                A[off + c] += au * v[c];
+            }
+        }
+    }
+}
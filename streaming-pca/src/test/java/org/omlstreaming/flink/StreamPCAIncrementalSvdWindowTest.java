@@ -0,0 +1,85 @@
+package org.omlstreaming.flink;
+
+import org.ejml.simple.SimpleMatrix;
+import org.ejml.simple.SimpleSVD;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// Sliding window of the incremental SVD, downdated sample by sample, against a batch SVD of the same
+// last W samples. The stream changes its covariance halfway and the window has forgotten the first
+// half by the end. Each time the ring buffer wraps the window eigenspace is refreshed, where the model
+// matches the batch PCA to rounding; in between the truncated downdates drift within 1e-2.
+public class StreamPCAIncrementalSvdWindowTest {
+
+    private static final int D = 10;
+    private static final int Q = 3;
+    private static final int W = 250;
+
+    @Test
+    public void windowMatchesBatchSvdAtRefresh() {
+        assertWindowMatchesBatchSvd(4 * W, 1e-8);
+    }
+
+    @Test
+    public void windowMatchesBatchSvdBetweenRefreshes() {
+        assertWindowMatchesBatchSvd(4 * W + W / 2, 1e-2);
+    }
+
+    private static void assertWindowMatchesBatchSvd(int samples, double relativeBound) {
+        SimpleMatrix initEigVals = new SimpleMatrix(Q, 1);
+        SimpleMatrix initEigVecs = new SimpleMatrix(D, Q);
+        for (int c = 0; c < Q; c++) {
+            initEigVals.set(c, 0, 1.0);
+            initEigVecs.set(c, c, 1.0);
+        }
+        StreamPCAModels model = new StreamPCAModels("isvd", Q, W, initEigVals, initEigVecs, new SimpleMatrix(1, D),
+                100);
+        model.setWeighting("window", 0.0);
+
+        Random random = new Random(11);
+        double[][] stream = new double[samples][D];
+        for (int s = 0; s < samples; s++) {
+            for (int r = 0; r < D; r++) {
+                int scaled = s < samples / 2 ? r : (r + 4) % D;
+                stream[s][r] = 2.0 + random.nextGaussian() * (scaled < Q + 1 ? 9.0 - 2.0 * scaled : 0.5);
+            }
+            model.accumulateStreamPCAModel(model.getModelState(), stream[s]);
+        }
+
+        // batch PCA of the window: the mean of its samples, the right singular vectors of the centered
+        // samples and their squared singular values over W
+        double[] mean = new double[D];
+        for (int s = samples - W; s < samples; s++) {
+            for (int r = 0; r < D; r++) {
+                mean[r] += stream[s][r] / W;
+            }
+        }
+        SimpleMatrix centered = new SimpleMatrix(W, D);
+        for (int s = 0; s < W; s++) {
+            for (int r = 0; r < D; r++) {
+                centered.set(s, r, stream[samples - W + s][r] - mean[r]);
+            }
+        }
+        SimpleSVD<SimpleMatrix> svd = centered.svd(true);
+        SimpleMatrix V = svd.getV();
+
+        StreamPCAModelsState state = model.getModelState();
+        assertEquals("window samples", W, state.getN());
+        for (int r = 0; r < D; r++) {
+            assertEquals("mean " + r, mean[r], state.getXbar().get(r), 1e-9);
+        }
+        // the batch singular values are in descending order, as the model eigenvalues
+        for (int c = 0; c < Q; c++) {
+            double expected = svd.getSingleValue(c) * svd.getSingleValue(c) / W;
+            assertEquals("eigenvalue " + c, expected, state.getLambda().get(c), relativeBound * expected);
+            double dot = 0.0;
+            for (int r = 0; r < D; r++) {
+                dot += state.getQ().get(r, c) * V.get(r, c);
+            }
+            assertEquals("eigenvector " + c, 1.0, Math.abs(dot), relativeBound);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.omlstreaming.flink;
+
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// Merge of the models of the two halves of a stream against the model fitted on the whole stream. The
+// second half is shifted along the leading direction, so the merged covariance needs the term of the
+// difference of the means. The merged mean is exact, the eigenpairs of the incremental SVD models
+// agree within 1e-3.
+public class StreamPCAModelsMergeTest {
+
+    private static final int D = 12;
+    private static final int Q = 3;
+    private static final int SAMPLES = 6000;
+    private static final int BOOTSTRAP = 300;
+    private static final double RELATIVE_BOUND = 1e-3;
+
+    @Test
+    public void mergedHalvesMatchWholeStream() {
+        StreamPCAModels whole = model();
+        StreamPCAModels firstHalf = model();
+        StreamPCAModels secondHalf = model();
+
+        Random random = new Random(23);
+        double[] scales = {8.0, 5.0, 3.0};
+        for (int s = 0; s < SAMPLES; s++) {
+            double[] sample = new double[D];
+            for (int r = 0; r < D; r++) {
+                sample[r] = 1.0 + 0.1 * random.nextGaussian();
+            }
+            for (int c = 0; c < Q; c++) {
+                sample[c] += scales[c] * random.nextGaussian();
+            }
+            if (s >= SAMPLES / 2) {
+                sample[0] += 2.0;
+            }
+            whole.accumulateStreamPCAModel(whole.getModelState(), sample);
+            StreamPCAModels half = s < SAMPLES / 2 ? firstHalf : secondHalf;
+            half.accumulateStreamPCAModel(half.getModelState(), sample);
+        }
+
+        StreamPCAModelsState expected = whole.getModelState();
+        StreamPCAModelsState merged = StreamPCAModelsMerge.merge(firstHalf.getModelState(),
+                secondHalf.getModelState());
+        assertEquals("samples", expected.getN(), merged.getN());
+        for (int r = 0; r < D; r++) {
+            assertEquals("mean " + r, expected.getXbar().get(r), merged.getXbar().get(r), 1e-9);
+        }
+        for (int c = 0; c < Q; c++) {
+            double value = expected.getLambda().get(c);
+            assertEquals("eigenvalue " + c, value, merged.getLambda().get(c), RELATIVE_BOUND * value);
+            double dot = 0.0;
+            for (int r = 0; r < D; r++) {
+                dot += expected.getQ().get(r, c) * merged.getQ().get(r, c);
+            }
+            assertEquals("eigenvector " + c, 1.0, Math.abs(dot), RELATIVE_BOUND);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void modelsWithoutSamplesAreRejected() {
+        SimpleMatrix eigVals = new SimpleMatrix(Q, 1);
+        SimpleMatrix eigVecs = new SimpleMatrix(D, Q);
+        for (int c = 0; c < Q; c++) {
+            eigVals.set(c, 0, 1.0);
+            eigVecs.set(c, c, 1.0);
+        }
+        StreamPCAModels empty = new StreamPCAModels("isvd", Q, 1, eigVals, eigVecs, new SimpleMatrix(1, D), 0);
+        StreamPCAModelsMerge.merge(empty.getModelState(), empty.getModelState().copy());
+    }
+
+    private static StreamPCAModels model() {
+        StreamPCAModels model = new StreamPCAModels("isvd", Q, 1, new SimpleMatrix(1, 1), new SimpleMatrix(1, Q),
+                new SimpleMatrix(1, 1), 100);
+        model.setBootstrap(BOOTSTRAP, Q);
+        return model;
+    }
+}
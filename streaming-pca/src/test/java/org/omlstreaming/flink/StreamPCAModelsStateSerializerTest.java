@@ -0,0 +1,107 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Round trip of a model through the serializer with each encoding of Q, and of an off-heap model
+// parked in its direct buffer. FLOAT64 and DEFLATE restore the model bit for bit, FLOAT32 rounds Q to
+// float. The model carries SPE statistics and samples of a pending block next to its matrices.
+public class StreamPCAModelsStateSerializerTest {
+
+    private static final int D = 16;
+    private static final int Q = 4;
+    private static final int BLOCK = 8;
+    private static final int SAMPLES = 1003;
+
+    @Test
+    public void float64RoundTripIsExact() throws IOException {
+        StreamPCAModelsState state = fittedState();
+        assertRoundTrip(state, roundTrip(state, StreamPCAModelsStateSerializer.MatrixEncoding.FLOAT64), 0.0);
+    }
+
+    @Test
+    public void float32RoundTripRoundsQ() throws IOException {
+        StreamPCAModelsState state = fittedState();
+        assertRoundTrip(state, roundTrip(state, StreamPCAModelsStateSerializer.MatrixEncoding.FLOAT32), 1e-7);
+    }
+
+    @Test
+    public void deflateRoundTripIsExact() throws IOException {
+        StreamPCAModelsState state = fittedState();
+        assertRoundTrip(state, roundTrip(state, StreamPCAModelsStateSerializer.MatrixEncoding.DEFLATE), 0.0);
+    }
+
+    @Test
+    public void parkedRoundTripStaysParked() throws IOException {
+        StreamPCAModelsState expected = fittedState();
+        StreamPCAModelsState state = expected.copy();
+        state.setOffHeap(true);
+        state.park();
+
+        StreamPCAModelsState restored = roundTrip(state, StreamPCAModelsStateSerializer.MatrixEncoding.FLOAT64);
+        assertTrue("source still parked", state.isParked());
+        assertTrue("restored off-heap", restored.isOffHeap());
+        assertTrue("restored parked", restored.isParked());
+        assertRoundTrip(expected, restored, 0.0);
+    }
+
+    private static StreamPCAModelsState roundTrip(StreamPCAModelsState state,
+                                                  StreamPCAModelsStateSerializer.MatrixEncoding encoding)
+            throws IOException {
+        StreamPCAModelsStateSerializer serializer = new StreamPCAModelsStateSerializer(encoding);
+        DataOutputSerializer out = new DataOutputSerializer(4096);
+        serializer.serialize(state, out);
+        return serializer.deserialize(new DataInputDeserializer(out.getByteArray(), 0, out.length()));
+    }
+
+    // Q is compared up to the given relative rounding, everything else exactly
+    private static void assertRoundTrip(StreamPCAModelsState expected, StreamPCAModelsState actual, double qBound) {
+        assertEquals("model type", expected.getPcaModelType(), actual.getPcaModelType());
+        assertEquals("samples", expected.getN(), actual.getN());
+        assertEquals("block size", expected.getBlockSize(), actual.getBlockSize());
+        assertEquals("pending samples", expected.getBatchFill(), actual.getBatchFill());
+        assertEquals("SPE count", expected.getSpeCount(), actual.getSpeCount());
+        assertEquals("SPE mean", expected.getSpeMean(), actual.getSpeMean(), 0.0);
+        assertMatrixEquals("lambda", expected.getLambda(), actual.getLambda(), 0.0);
+        assertMatrixEquals("xbar", expected.getXbar(), actual.getXbar(), 0.0);
+        assertMatrixEquals("Q", expected.getQ(), actual.getQ(), qBound);
+    }
+
+    private static void assertMatrixEquals(String name, SimpleMatrix expected, SimpleMatrix actual,
+                                           double relativeBound) {
+        assertEquals(name + " rows", expected.numRows(), actual.numRows());
+        assertEquals(name + " columns", expected.numCols(), actual.numCols());
+        for (int i = 0; i < expected.getNumElements(); i++) {
+            assertEquals(name + " " + i, expected.get(i), actual.get(i), relativeBound * Math.abs(expected.get(i)));
+        }
+    }
+
+    // ccpca model past its bootstrap, scored on the way, with samples of an unfinished block
+    private static StreamPCAModelsState fittedState() {
+        StreamPCAModels model = new StreamPCAModels("ccpca", Q, 1, new SimpleMatrix(1, 1), new SimpleMatrix(1, Q),
+                new SimpleMatrix(1, 1), 100, BLOCK);
+        model.setBootstrap(200, Q);
+        StreamPCAModelsState state = model.getModelState();
+        Random random = new Random(5);
+        for (int s = 0; s < SAMPLES; s++) {
+            double[] sample = new double[D];
+            for (int r = 0; r < D; r++) {
+                sample[r] = 2.0 + random.nextGaussian() * (r < Q ? 6.0 - r : 0.3);
+            }
+            if (!state.isBootstrapping()) {
+                model.projectSample(state, sample);
+                StreamPCAMonitor.updateSpeStatistics(state, state.getLastSpe());
+            }
+            model.accumulateStreamPCAModel(state, sample);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,103 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.types.Row;
+import org.ejml.simple.SimpleMatrix;
+import org.ejml.simple.SimpleSVD;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// Sliding window on the shared model of the PCA global features. Every event reaches the model once,
+// whichever feature delivers it, so a window of W events holds the last W distinct events: its mean
+// and eigenvalues match a batch PCA of those events. The stream changes its covariance halfway, the
+// window has forgotten the first half by the end, which falls halfway between two refreshes of the
+// downdated isvd window.
+public class StreamPCASharedWindowTest {
+
+    private static final int D = 8;
+    private static final int Q = 3;
+    private static final int W = 200;
+    private static final int EVENTS = 1100;
+
+    @Test
+    public void scatterWindowMatchesBatchPCA() {
+        assertWindowMatchesBatchPCA("ccpca", 1e-4);
+    }
+
+    @Test
+    public void downdatedWindowMatchesBatchPCA() {
+        assertWindowMatchesBatchPCA("isvd", 1e-2);
+    }
+
+    private static void assertWindowMatchesBatchPCA(String modelType, double relativeBound) {
+        SimpleMatrix initEigVecs = new SimpleMatrix(D, Q);
+        SimpleMatrix initEigVals = new SimpleMatrix(Q, 1);
+        for (int c = 0; c < Q; c++) {
+            initEigVecs.set(c, c, 1.0);
+            initEigVals.set(c, 0, 1.0);
+        }
+        SharedStreamPCAModel sharedModel = new SharedStreamPCAModel(modelType, Q, W, initEigVals, initEigVecs,
+                new SimpleMatrix(1, D), 100, 1);
+        StreamPCAModelConfig config = new StreamPCAModelConfig();
+        config.setWeighting("window", 0.0);
+        sharedModel.setConfig(config);
+
+        // two features on the same model, both see every event
+        PCAGlobalFeatureModel model = PCAGlobalFeatureModel.create("double", 0, sharedModel);
+        PCAGlobalFeatureEigVals eigVals = PCAGlobalFeatureEigVals.create("double", 0, sharedModel);
+        Object modelState = model.init();
+        Object eigValsState = eigVals.init();
+
+        Random random = new Random(7);
+        double[][] events = new double[EVENTS][D];
+        for (int e = 0; e < EVENTS; e++) {
+            for (int r = 0; r < D; r++) {
+                int scaled = e < EVENTS / 2 ? r : (r + 3) % D;
+                events[e][r] = 1.0 + random.nextGaussian() * (scaled < Q + 1 ? 8.0 - 2.0 * scaled : 0.5);
+            }
+            Row event = new Row(D + 1);
+            event.setField(0, "machine");
+            for (int r = 0; r < D; r++) {
+                event.setField(r + 1, events[e][r]);
+            }
+            modelState = model.accumulate(modelState, event);
+            eigValsState = eigVals.accumulate(eigValsState, event);
+        }
+
+        // batch PCA of the last W events: their mean and the squared singular values of the centered
+        // events over W
+        double[] mean = new double[D];
+        for (int e = EVENTS - W; e < EVENTS; e++) {
+            for (int r = 0; r < D; r++) {
+                mean[r] += events[e][r] / W;
+            }
+        }
+        SimpleMatrix centered = new SimpleMatrix(W, D);
+        for (int e = 0; e < W; e++) {
+            for (int r = 0; r < D; r++) {
+                centered.set(e, r, events[EVENTS - W + e][r] - mean[r]);
+            }
+        }
+        SimpleSVD<SimpleMatrix> svd = centered.svd(true);
+        double[] expected = new double[D];
+        for (int c = 0; c < D; c++) {
+            expected[c] = svd.getSingleValue(c) * svd.getSingleValue(c) / W;
+        }
+        Arrays.sort(expected);
+
+        StreamPCAModelsState state = sharedModel.getPcaModel().getModelState();
+        assertEquals(modelType + " window samples", W, state.getN());
+        for (int r = 0; r < D; r++) {
+            assertEquals(modelType + " mean " + r, mean[r], state.getXbar().get(r), 1e-9);
+        }
+        double[] actual = state.getLambda().getDDRM().data.clone();
+        Arrays.sort(actual);
+        for (int c = 0; c < Q; c++) {
+            double value = expected[D - Q + c];
+            assertEquals(modelType + " eigenvalue " + c, value, actual[c], relativeBound * value);
+        }
+    }
+}
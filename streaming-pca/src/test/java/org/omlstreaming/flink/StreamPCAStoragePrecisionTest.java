@@ -0,0 +1,117 @@
+package org.omlstreaming.flink;
+
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// Drift of a model stored as float32 against the same model stored as float64. The float32 model sees
+// the samples rounded to float, as SensorSampleFloat32Serializer delivers them, and goes through the
+// serializer after every sample, as with RocksDB. Its eigenvalues stay within a relative error of
+// 1e-4 of the float64 model over 20000 samples.
+public class StreamPCAStoragePrecisionTest {
+
+    private static final int D = 16;
+    private static final int Q = 4;
+    private static final int SAMPLES = 20000;
+    private static final int BOOTSTRAP = 500;
+    private static final double RELATIVE_BOUND = 1e-4;
+
+    @Test
+    public void covarianceFreeEigenvaluesStayWithinBound() throws IOException {
+        assertEigenvaluesWithinBound("ccpca");
+    }
+
+    @Test
+    public void incrementalSvdEigenvaluesStayWithinBound() throws IOException {
+        assertEigenvaluesWithinBound("isvd");
+    }
+
+    private static void assertEigenvaluesWithinBound(String modelType) throws IOException {
+        StreamPCAModels float64 = model(modelType, "float64");
+        StreamPCAModels float32 = model(modelType, "float32");
+        StreamPCAModelsStateSerializer serializer = new StreamPCAModelsStateSerializer();
+        DataOutputSerializer out = new DataOutputSerializer(4096);
+
+        Random random = new Random(42);
+        double[][] directions = orthonormalDirections(random);
+        double[] scales = {10.0, 6.0, 4.0, 2.0};
+        double[] rounded = new double[D];
+        for (int s = 0; s < SAMPLES; s++) {
+            double[] sample = sample(random, directions, scales);
+            for (int r = 0; r < D; r++) {
+                rounded[r] = (float) sample[r];
+            }
+            float64.accumulateStreamPCAModel(float64.getModelState(), sample);
+            float32.accumulateStreamPCAModel(float32.getModelState(), rounded);
+
+            out.clear();
+            serializer.serialize(float32.getModelState(), out);
+            float32.setModelState(serializer.deserialize(new DataInputDeserializer(out.getByteArray(), 0,
+                    out.length())));
+        }
+
+        SimpleMatrix expected = float64.getModelState().getLambda();
+        SimpleMatrix actual = float32.getModelState().getLambda();
+        for (int c = 0; c < Q; c++) {
+            assertEquals(modelType + " eigenvalue " + c, expected.get(c), actual.get(c),
+                    RELATIVE_BOUND * expected.get(c));
+        }
+    }
+
+    private static StreamPCAModels model(String modelType, String storagePrecision) {
+        StreamPCAModels model = new StreamPCAModels(modelType, Q, 1, new SimpleMatrix(1, 1), new SimpleMatrix(1, Q),
+                new SimpleMatrix(1, 1), 100);
+        model.setBootstrap(BOOTSTRAP, Q);
+        model.setStoragePrecision(storagePrecision);
+        return model;
+    }
+
+    // Q random orthonormal directions in D dimensions, Gram-Schmidt on gaussian vectors
+    private static double[][] orthonormalDirections(Random random) {
+        double[][] directions = new double[Q][D];
+        for (int c = 0; c < Q; c++) {
+            for (int r = 0; r < D; r++) {
+                directions[c][r] = random.nextGaussian();
+            }
+            for (int p = 0; p < c; p++) {
+                double dot = 0.0;
+                for (int r = 0; r < D; r++) {
+                    dot += directions[c][r] * directions[p][r];
+                }
+                for (int r = 0; r < D; r++) {
+                    directions[c][r] -= dot * directions[p][r];
+                }
+            }
+            double norm = 0.0;
+            for (int r = 0; r < D; r++) {
+                norm += directions[c][r] * directions[c][r];
+            }
+            norm = Math.sqrt(norm);
+            for (int r = 0; r < D; r++) {
+                directions[c][r] /= norm;
+            }
+        }
+        return directions;
+    }
+
+    // latent components along the directions plus isotropic noise, around a non-zero mean
+    private static double[] sample(Random random, double[][] directions, double[] scales) {
+        double[] sample = new double[D];
+        for (int r = 0; r < D; r++) {
+            sample[r] = 3.0 + 0.5 * random.nextGaussian();
+        }
+        for (int c = 0; c < Q; c++) {
+            double score = scales[c] * random.nextGaussian();
+            for (int r = 0; r < D; r++) {
+                sample[r] += score * directions[c][r];
+            }
+        }
+        return sample;
+    }
+}